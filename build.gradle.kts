@@ -176,6 +176,10 @@ dependencies {
 	modImplementation("com.blamejared.searchables:Searchables-fabric-${properties["searchables_version"]}")
 	include("com.blamejared.searchables:Searchables-fabric-${properties["searchables_version"]}")
 
+	// SQLite storage backend
+	implementation("org.xerial:sqlite-jdbc:${properties["sqlite-jdbc_version"]}")
+	include("org.xerial:sqlite-jdbc:${properties["sqlite-jdbc_version"]}")
+
 	// dev util
 	//modLocalRuntime("dev.emi:emi-fabric:${properties["emi_version"]}")
 	//modLocalRuntime("maven.modrinth:jsst:mc1.20-0.3.12")
@@ -226,6 +230,7 @@ fun makeChangelogPrologue(): String {
 		|Bundled:
 		|  - Where Is It: ${properties["where-is-it_version"]}
 		|  - Searchables: ${properties["searchables_version"]}
+		|  - SQLite JDBC: ${properties["sqlite-jdbc_version"]}
 		|  """.trimMargin()
 }
 
@@ -63,6 +63,8 @@ public class ChestTracker implements ClientModInitializer {
         return LogManager.getLogger(ChestTracker.class.getCanonicalName() + "/" + suffix);
     }
 
+    private static final int TICKS_BETWEEN_IDLE_PACKS = 1200;
+
     public static final KeyMapping OPEN_GUI = KeyBindingHelper.registerKeyBinding(
             new KeyMapping("key.chesttracker.open_gui", InputConstants.Type.KEYSYM, InputConstants.KEY_GRAVE, "chesttracker.title")
     );
@@ -76,7 +78,9 @@ public class ChestTracker implements ClientModInitializer {
         ChestTrackerConfig.init();
         LOGGER.debug("Loading ChestTracker");
 
-        // load and unload memory storage
+        // load and unload memory storage; start loading as soon as the connection is known, so it overlaps with joining
+        ClientPlayConnectionEvents.INIT.register((handler, client) -> client.execute(() ->
+                Coordinate.getCurrent().ifPresent(MemoryBank::startLoadingDefault)));
         ClientPlayConnectionEvents.JOIN.register((handler, sender, client) -> client.execute(() -> {
             var coord = Coordinate.getCurrent();
             if (coord.isPresent()) {
@@ -99,8 +103,17 @@ public class ChestTracker implements ClientModInitializer {
                     openInGame(client, null);
         });
 
-        ClientTickEvents.START_WORLD_TICK.register(ignored -> {
-            if (MemoryBank.INSTANCE != null) MemoryBank.INSTANCE.getMetadata().incrementLoadedTime();
+        ClientTickEvents.END_CLIENT_TICK.register(client -> {
+            // hand this tick's changes to off-thread readers
+            if (MemoryBank.INSTANCE != null) MemoryBank.INSTANCE.publishSnapshot();
+        });
+
+        ClientTickEvents.START_WORLD_TICK.register(level -> {
+            if (MemoryBank.INSTANCE == null) return;
+            MemoryBank.INSTANCE.getMetadata().incrementLoadedTime();
+            // compact keys that haven't been looked at for a while
+            if (level.getGameTime() % TICKS_BETWEEN_IDLE_PACKS == 0)
+                MemoryBank.INSTANCE.packIdleKeys(ProviderHandler.getCurrentKey());
         });
 
         ScreenEvents.AFTER_INIT.register((client, screen, scaledWidth, scaledHeight) -> {
@@ -17,8 +17,9 @@ public class ChestTrackerWhereIsItPlugin implements WhereIsItClientPlugin {
             if (ProviderHandler.INSTANCE == null) return false;
             var currentKey = ProviderHandler.getCurrentKey();
             if (currentKey == null) return false;
-            var results = MemoryBank.INSTANCE.getPositions(currentKey, request);
-            if (!results.isEmpty()) resultConsumer.accept(results);
+            MemoryBank.INSTANCE.getPositions(currentKey, request).thenAccept(results -> {
+                if (!results.isEmpty()) resultConsumer.accept(results);
+            });
             return true;
         });
     }
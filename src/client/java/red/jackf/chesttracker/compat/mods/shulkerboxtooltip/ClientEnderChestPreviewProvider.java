@@ -9,6 +9,7 @@ import net.minecraft.ChatFormatting;
 import net.minecraft.network.chat.Component;
 import net.minecraft.world.item.ItemStack;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import red.jackf.chesttracker.memory.MemoryBank;
 
 import java.util.Collections;
@@ -17,6 +18,12 @@ import java.util.List;
 import static net.minecraft.network.chat.Component.translatable;
 
 public class ClientEnderChestPreviewProvider implements PreviewProvider {
+    // tooltips are rebuilt every frame, so only recount the ender chest when it changes
+    @Nullable
+    private MemoryBank cachedBank = null;
+    private long cachedVersion = -1;
+    private List<ItemStack> cachedInventory = Collections.emptyList();
+
     @Override
     public boolean shouldDisplay(@NotNull PreviewContext context) {
         if (MemoryBank.INSTANCE == null) return false;
@@ -26,13 +33,21 @@ public class ClientEnderChestPreviewProvider implements PreviewProvider {
 
     @Override
     public List<ItemStack> getInventory(@NotNull PreviewContext context) {
-        if (MemoryBank.INSTANCE == null) return Collections.emptyList();
-        return MemoryBank.INSTANCE.getCounts(MemoryBank.ENDER_CHEST_KEY, m -> true).entrySet().stream()
-                .map(entry -> {
-                    var stack = entry.getKey().toStack();
-                    stack.setCount(entry.getValue());
-                    return stack;
-                }).toList();
+        var bank = MemoryBank.INSTANCE;
+        if (bank == null) return Collections.emptyList();
+        long version = bank.getVersion(MemoryBank.ENDER_CHEST_KEY);
+        if (bank != cachedBank || version != cachedVersion) {
+            cachedInventory = bank.getCounts(MemoryBank.ENDER_CHEST_KEY).entrySet().stream()
+                    .map(entry -> {
+                        var stack = entry.getKey().toStack();
+                        stack.setCount(entry.getValue());
+                        return stack;
+                    }).toList();
+            cachedBank = bank;
+            cachedVersion = version;
+        }
+        // copied in case the preview modifies them
+        return cachedInventory.stream().map(ItemStack::copy).toList();
     }
 
     @Override
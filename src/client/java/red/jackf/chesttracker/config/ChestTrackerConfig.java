@@ -7,6 +7,7 @@ import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.util.Mth;
 import red.jackf.chesttracker.ChestTracker;
 import red.jackf.chesttracker.gui.GuiConstants;
+import red.jackf.chesttracker.storage.NbtCompression;
 import red.jackf.chesttracker.storage.backend.Backend.Type;
 
 import java.io.IOException;
@@ -91,8 +92,23 @@ public class ChestTrackerConfig {
         @SerialEntry(comment = "Whether the JSON files in the memory directory should be readable, or compacted.")
         public boolean readableJsonMemories = false;
 
-        @SerialEntry(comment = "Defines the format that Memory Banks are stored between worlds/sessions. Valid values: NBT, JSON, MEMORY")
+        @SerialEntry(comment = "Defines the format that Memory Banks are stored between worlds/sessions. Valid values: NBT, JSON, BINARY, JOURNAL, SHARDED, SQLITE, MEMORY")
         public Type storageBackend = Type.NBT;
+
+        @SerialEntry(comment = "Whether Memory Banks should be encoded and written on a background thread when pausing, instead of freezing the game.")
+        public boolean asyncSaving = true;
+
+        @SerialEntry(comment = "Minimum number of seconds between automatic saves while playing. 0 disables automatic saving. Range: [0, 300]")
+        public int autosaveInterval = 30;
+
+        @SerialEntry(comment = "Maximum number of seconds changes can go unsaved while playing, even if more keep being made. Range: [10, 600]")
+        public int autosaveMaxStaleness = 120;
+
+        @SerialEntry(comment = "Approximate memory in megabytes to keep recently used Memory Banks in, so switching back to them is faster. Range: [0, 1024]")
+        public int bankCacheBudget = 64;
+
+        @SerialEntry(comment = "How NBT files are compressed when saved. Valid values: NONE, FAST, DEFAULT, MAX")
+        public NbtCompression nbtCompression = NbtCompression.DEFAULT;
     }
 
     public static class Compatibility {
@@ -108,5 +124,9 @@ public class ChestTrackerConfig {
         this.gui.itemListTextScale = Mth.clamp(this.gui.itemListTextScale, -6, 0);
         this.rendering.nameRange = Mth.clamp(this.rendering.nameRange, 4, 24);
         if (this.storage.storageBackend == null) this.storage.storageBackend = Type.NBT;
+        this.storage.autosaveInterval = Mth.clamp(this.storage.autosaveInterval, 0, 300);
+        this.storage.autosaveMaxStaleness = Mth.clamp(this.storage.autosaveMaxStaleness, 10, 600);
+        this.storage.bankCacheBudget = Mth.clamp(this.storage.bankCacheBudget, 0, 1024);
+        if (this.storage.nbtCompression == null) this.storage.nbtCompression = NbtCompression.DEFAULT;
     }
 }
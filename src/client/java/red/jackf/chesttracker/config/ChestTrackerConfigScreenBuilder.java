@@ -17,6 +17,9 @@ import org.apache.commons.io.FileUtils;
 import red.jackf.chesttracker.gui.GuiConstants;
 import red.jackf.chesttracker.gui.screen.MemoryBankManagerScreen;
 import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.storage.BackendConverter;
+import red.jackf.chesttracker.storage.NbtCompression;
+import red.jackf.chesttracker.storage.StorageBenchmark;
 import red.jackf.chesttracker.storage.backend.Backend;
 import red.jackf.chesttracker.util.Constants;
 import red.jackf.chesttracker.util.StringUtil;
@@ -246,6 +249,12 @@ public class ChestTrackerConfigScreenBuilder {
                                 () -> instance.instance().debug.showDevHud,
                                 b -> instance.instance().debug.showDevHud = b
                         ).build())
+                .option(ButtonOption.createBuilder()
+                        .name(translatable("chesttracker.config.dev.storageBenchmark"))
+                        .description(OptionDescription.of(translatable("chesttracker.config.dev.storageBenchmark.description")))
+                        .action((screen, option) -> StorageBenchmark.run())
+                        .available(MemoryBank.INSTANCE != null)
+                        .build())
                 .build();
     }
 
@@ -321,9 +330,85 @@ public class ChestTrackerConfigScreenBuilder {
                                 () -> instance.instance().storage.readableJsonMemories,
                                 b -> {
                                     instance.instance().storage.readableJsonMemories = b;
+                                    // rewrite in the new format
+                                    if (MemoryBank.INSTANCE != null) MemoryBank.INSTANCE.markUnsaved();
                                     MemoryBank.save();
                                     refreshConfigScreen(parent);
                                 })
+                        .build())
+                .option(Option.<Boolean>createBuilder()
+                        .name(translatable("chesttracker.config.storage.asyncSaving"))
+                        .description(OptionDescription.of(translatable("chesttracker.config.storage.asyncSaving.description")))
+                        .controller(opt -> BooleanControllerBuilder.create(opt)
+                                .yesNoFormatter()
+                                .coloured(true))
+                        .binding(
+                                instance.defaults().storage.asyncSaving,
+                                () -> instance.instance().storage.asyncSaving,
+                                b -> instance.instance().storage.asyncSaving = b)
+                        .build())
+                .option(Option.<Integer>createBuilder()
+                        .name(translatable("chesttracker.config.storage.autosaveInterval"))
+                        .description(OptionDescription.of(translatable("chesttracker.config.storage.autosaveInterval.description")))
+                        .controller(opt -> IntegerSliderControllerBuilder.create(opt)
+                                .range(0, 300)
+                                .step(5)
+                                .formatValue(i -> i == 0 ? CommonComponents.OPTION_OFF : translatable("chesttracker.config.storage.seconds", i)))
+                        .binding(
+                                instance.defaults().storage.autosaveInterval,
+                                () -> instance.instance().storage.autosaveInterval,
+                                i -> instance.instance().storage.autosaveInterval = i)
+                        .build())
+                .option(Option.<Integer>createBuilder()
+                        .name(translatable("chesttracker.config.storage.autosaveMaxStaleness"))
+                        .description(OptionDescription.of(translatable("chesttracker.config.storage.autosaveMaxStaleness.description")))
+                        .controller(opt -> IntegerSliderControllerBuilder.create(opt)
+                                .range(10, 600)
+                                .step(10)
+                                .formatValue(i -> translatable("chesttracker.config.storage.seconds", i)))
+                        .binding(
+                                instance.defaults().storage.autosaveMaxStaleness,
+                                () -> instance.instance().storage.autosaveMaxStaleness,
+                                i -> instance.instance().storage.autosaveMaxStaleness = i)
+                        .build())
+                .option(Option.<Backend.Type>createBuilder()
+                        .name(translatable("chesttracker.config.storage.convert.source"))
+                        .description(OptionDescription.of(translatable("chesttracker.config.storage.convert.source.description")))
+                        .controller(opt -> EnumControllerBuilder.create(opt)
+                                .enumClass(Backend.Type.class))
+                        .binding(
+                                Backend.Type.JSON,
+                                () -> BackendConverter.source,
+                                e -> BackendConverter.source = e)
+                        .build())
+                .option(ButtonOption.createBuilder()
+                        .name(translatable("chesttracker.config.storage.convert"))
+                        .description(OptionDescription.of(translatable("chesttracker.config.storage.convert.description")))
+                        .action((screen, option) -> BackendConverter.start(
+                                BackendConverter.source,
+                                instance.instance().storage.storageBackend))
+                        .build())
+                .option(Option.<Integer>createBuilder()
+                        .name(translatable("chesttracker.config.storage.bankCacheBudget"))
+                        .description(OptionDescription.of(translatable("chesttracker.config.storage.bankCacheBudget.description")))
+                        .controller(opt -> IntegerSliderControllerBuilder.create(opt)
+                                .range(0, 1024)
+                                .step(16)
+                                .formatValue(i -> literal(i + " MB")))
+                        .binding(
+                                instance.defaults().storage.bankCacheBudget,
+                                () -> instance.instance().storage.bankCacheBudget,
+                                i -> instance.instance().storage.bankCacheBudget = i)
+                        .build())
+                .option(Option.<NbtCompression>createBuilder()
+                        .name(translatable("chesttracker.config.storage.nbtCompression"))
+                        .description(OptionDescription.of(translatable("chesttracker.config.storage.nbtCompression.description")))
+                        .controller(opt -> EnumControllerBuilder.create(opt)
+                                .enumClass(NbtCompression.class))
+                        .binding(
+                                instance.defaults().storage.nbtCompression,
+                                () -> instance.instance().storage.nbtCompression,
+                                e -> instance.instance().storage.nbtCompression = e)
                         .build());
 
         return rootBuilder.build();
@@ -6,6 +6,7 @@ import red.jackf.chesttracker.api.provider.InteractionTracker;
 import red.jackf.chesttracker.config.ChestTrackerConfig;
 import red.jackf.chesttracker.memory.MemoryBank;
 import red.jackf.chesttracker.provider.ProviderHandler;
+import red.jackf.chesttracker.util.StringUtil;
 import red.jackf.jackfredlib.client.api.gps.Coordinate;
 
 import java.util.ArrayList;
@@ -29,7 +30,18 @@ public class DeveloperOverlay {
                 if (MemoryBank.INSTANCE.getMetadata().getName() != null)
                     loadedStr += " (" + MemoryBank.INSTANCE.getMetadata().getName() + ")";
                 lines.add(loadedStr);
-                lines.add("Keys: " + MemoryBank.INSTANCE.getKeys().size());
+                var loadTiming = MemoryBank.getLastLoadTiming();
+                if (loadTiming != null)
+                    lines.add("Load time: %.1fms (%.1fms hidden by joining)".formatted(
+                            loadTiming.totalNanos() / 1_000_000.0,
+                            loadTiming.hiddenNanos() / 1_000_000.0));
+                lines.add("Keys: " + MemoryBank.INSTANCE.getKeys().size() + " (" + MemoryBank.INSTANCE.getPackedKeyCount() + " packed)");
+                var interner = MemoryBank.INSTANCE.getInterner();
+                lines.add("Interned stacks: %d (%.2fx dedup), %sB retained, %sB saved".formatted(
+                        interner.size(),
+                        interner.getDeduplicationRatio(),
+                        StringUtil.magnitudeSpace(interner.getRetainedBytes(), 2),
+                        StringUtil.magnitudeSpace(interner.getSavedBytes(), 2)));
                 var level = Minecraft.getInstance().level;
                 if (level != null) {
                     lines.add("Current key: " + currentKey);
@@ -8,7 +8,6 @@ import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.components.*;
 import net.minecraft.client.gui.screens.Screen;
 import net.minecraft.client.resources.language.I18n;
-import net.minecraft.core.BlockPos;
 import net.minecraft.network.chat.CommonComponents;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
@@ -27,7 +26,6 @@ import red.jackf.chesttracker.gui.util.SearchablesUtil;
 import red.jackf.chesttracker.gui.util.TextColours;
 import red.jackf.chesttracker.gui.widget.*;
 import red.jackf.chesttracker.memory.LightweightStack;
-import red.jackf.chesttracker.memory.Memory;
 import red.jackf.chesttracker.memory.MemoryBank;
 import red.jackf.chesttracker.provider.ProviderHandler;
 import red.jackf.chesttracker.util.Enums;
@@ -75,6 +73,8 @@ public class ChestTrackerScreen extends Screen {
     private VerticalScrollWidget scroll;
     private ResourceLocation currentMemoryKey;
     private List<ItemStack> items = Collections.emptyList();
+    // key version the item list was last built from
+    private long itemsVersion = -1;
 
     public ChestTrackerScreen(@Nullable Screen parent) {
         super(TITLE);
@@ -322,17 +322,15 @@ public class ChestTrackerScreen extends Screen {
         int maxRange = MemoryBank.INSTANCE.getMetadata().getSearchSettings().itemListRange;
         Map<LightweightStack, Integer> counts;
 
-        Predicate<Map.Entry<BlockPos, Memory>> predicate = containerFilter.filter;
-
         // apply max range if necessary
         if (Minecraft.getInstance().player != null && Objects.equals(ProviderHandler.getCurrentKey(), currentMemoryKey)) {
-            long squareMaxRange = (long) maxRange * maxRange;
             Vec3 origin = Minecraft.getInstance().player.getEyePosition();
-            predicate = predicate.and(entry -> entry.getKey().getCenter().distanceToSqr(origin) < squareMaxRange);
+            counts = MemoryBank.INSTANCE.getCounts(currentMemoryKey, containerFilter.filter, origin, maxRange);
+        } else {
+            counts = MemoryBank.INSTANCE.getCounts(currentMemoryKey, containerFilter.filter);
         }
 
-        counts = MemoryBank.INSTANCE.getCounts(currentMemoryKey, predicate);
-
+        this.itemsVersion = MemoryBank.INSTANCE.getVersion(currentMemoryKey);
         this.items = counts.entrySet().stream()
                            .sorted(itemSort.sort)
                            .map(e -> { // lightweight stack -> full stacks
@@ -366,6 +364,14 @@ public class ChestTrackerScreen extends Screen {
         }
     }
 
+    @Override
+    public void tick() {
+        super.tick();
+        // keep the item list live if memories change while open, without recounting otherwise
+        if (MemoryBank.INSTANCE != null && MemoryBank.INSTANCE.getVersion(currentMemoryKey) != itemsVersion)
+            updateItems();
+    }
+
     @Override
     public void render(@NotNull GuiGraphics graphics, int mouseX, int mouseY, float tickDelta) {
         this.itemList.setHideTooltip(this.search.isFocused() && ifAutocomplete(a -> a.isMouseOver(mouseX, mouseY)));
@@ -458,28 +464,30 @@ public class ChestTrackerScreen extends Screen {
     public enum ContainerFilter {
         ALL(GuiUtil.twoSprite("container_filter/all"),
             translatable("chesttracker.gui.container_filter.all"),
-            memory -> true),
+            null),
         CHESTS(GuiUtil.twoSprite("container_filter/chests"),
                translatable("chesttracker.gui.container_filter.chests"),
-               memory -> memory.getValue().container().map(b -> b instanceof AbstractChestBlock<?>).orElse(false)),
+               block -> block instanceof AbstractChestBlock<?>),
         BARRELS(GuiUtil.twoSprite("container_filter/barrels"),
                 translatable("chesttracker.gui.container_filter.barrels"),
-                memory -> memory.getValue().container().map(b -> b instanceof BarrelBlock).orElse(false)),
+                block -> block instanceof BarrelBlock),
         SHULKER_BOXES(GuiUtil.twoSprite("container_filter/shulker_boxes"),
                       translatable("chesttracker.gui.container_filter.shulker_boxes"),
-                      memory -> memory.getValue().container().map(b -> b instanceof ShulkerBoxBlock).orElse(false)),
+                      block -> block instanceof ShulkerBoxBlock),
         HOPPERS(GuiUtil.twoSprite("container_filter/hoppers"),
                 translatable("chesttracker.gui.container_filter.hoppers"),
-        memory -> memory.getValue().container().map(b -> b instanceof HopperBlock).orElse(false)),
+        block -> block instanceof HopperBlock),
         FURNACES(GuiUtil.twoSprite("container_filter/furnaces"),
                  translatable("chesttracker.gui.container_filter.furnaces"),
-                 memory -> memory.getValue().container().map(b -> b instanceof AbstractFurnaceBlock).orElse(false));
+                 block -> block instanceof AbstractFurnaceBlock);
 
         private final WidgetSprites sprites;
         private final Component tooltip;
-        private final Predicate<Map.Entry<BlockPos, Memory>> filter;
+        // null if not filtering
+        @Nullable
+        private final Predicate<Block> filter;
 
-        ContainerFilter(WidgetSprites sprites, Component tooltip, Predicate<Map.Entry<BlockPos, Memory>> filter) {
+        ContainerFilter(WidgetSprites sprites, Component tooltip, @Nullable Predicate<Block> filter) {
             this.sprites = sprites;
             this.tooltip = tooltip;
             this.filter = filter;
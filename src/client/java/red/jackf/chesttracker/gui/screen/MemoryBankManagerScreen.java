@@ -1,6 +1,5 @@
 package red.jackf.chesttracker.gui.screen;
 
-import com.mojang.datafixers.util.Pair;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.components.EditBox;
 import net.minecraft.client.gui.components.ImageButton;
@@ -18,10 +17,11 @@ import red.jackf.chesttracker.gui.widget.CustomEditBox;
 import red.jackf.chesttracker.gui.widget.StringSelectorWidget;
 import red.jackf.chesttracker.gui.widget.TextWidget;
 import red.jackf.chesttracker.memory.MemoryBank;
-import red.jackf.chesttracker.memory.metadata.Metadata;
+import red.jackf.chesttracker.storage.MemoryBankCatalog;
 import red.jackf.chesttracker.storage.Storage;
 import red.jackf.chesttracker.util.GuiUtil;
 
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.function.Supplier;
@@ -42,7 +42,7 @@ public class MemoryBankManagerScreen extends BaseUtilScreen {
 
     private EditBox search = null;
     private StringSelectorWidget<String> memoryBankList;
-    private Map<String, Metadata> memoryBanks;
+    private Map<String, MemoryBankCatalog.Entry> memoryBanks;
 
     /**
      * @param onRemoveScreen  - Runnable to run on cancel, usually when pressing escape or a back button
@@ -52,6 +52,11 @@ public class MemoryBankManagerScreen extends BaseUtilScreen {
         super(Component.translatable("chesttracker.gui.memoryManager"));
         this.onRemoveScreen = onRemoveScreen;
         this.afterBankLoaded = afterBankLoaded;
+
+        // list from the catalog straight away, and update if anything changed on disk
+        Storage.refreshCatalog().thenAccept(changed -> {
+            if (changed && Minecraft.getInstance().screen == this) this.rebuildWidgets();
+        });
     }
 
     /**
@@ -70,11 +75,9 @@ public class MemoryBankManagerScreen extends BaseUtilScreen {
     protected void init() {
         super.init();
 
-        this.memoryBanks = Storage.getAllIds().stream()
-                .sorted()
-                .map(id -> Pair.of(id, Storage.loadMetadata(id)))
-                .filter(pair -> pair.getSecond().isPresent())
-                .collect(Collectors.toMap(Pair::getFirst, p -> p.getSecond().get(), (a, b) -> a, LinkedHashMap::new));
+        this.memoryBanks = Storage.getCatalog().stream()
+                .sorted(Comparator.comparing(MemoryBankCatalog.Entry::id))
+                .collect(Collectors.toMap(MemoryBankCatalog.Entry::id, entry -> entry, (a, b) -> a, LinkedHashMap::new));
 
         // backend label
         this.addRenderableOnly(new TextWidget(this.left + GuiConstants.MARGIN,
@@ -120,14 +123,14 @@ public class MemoryBankManagerScreen extends BaseUtilScreen {
             // update string list options
             this.memoryBankList.setOptions(this.memoryBanks.entrySet().stream()
                     .filter(entry -> {
-                        var name = entry.getValue().getName();
+                        var name = entry.getValue().name();
                         if (name == null) name = entry.getKey();
                         return name.toLowerCase().contains(term.toLowerCase());
                     }).collect(Collectors.toMap(
                             Map.Entry::getKey,
                             e -> {
-                                if (e.getValue().getName() != null) {
-                                    return Component.literal(e.getValue().getName()); // custom user-defined name
+                                if (e.getValue().name() != null) {
+                                    return Component.literal(e.getValue().name()); // custom user-defined name
                                 } else {
                                     var id = Component.literal(e.getKey());
                                     if (ChestTrackerConfig.INSTANCE.instance().gui.hideMemoryIds)
@@ -1,5 +1,6 @@
 package red.jackf.chesttracker.gui.screen;
 
+import com.google.common.collect.Maps;
 import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceLocation;
 import org.jetbrains.annotations.Nullable;
@@ -8,10 +9,7 @@ import red.jackf.chesttracker.memory.MemoryBank;
 import red.jackf.chesttracker.memory.metadata.Metadata;
 import red.jackf.chesttracker.storage.Storage;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * View of a memory bank for management purposes
@@ -35,6 +33,8 @@ public interface MemoryBankView {
         return new MemoryBankView() {
             private final Metadata copy = bank.getMetadata().deepCopy();
             private final List<ResourceLocation> toRemove = new ArrayList<>();
+            // memories to remove on save; the bank may be shared with the cache, so isn't changed until then
+            private final Map<ResourceLocation, Set<BlockPos>> memoriesToRemove = new HashMap<>();
 
             @Override
             public String id() {
@@ -53,7 +53,10 @@ public interface MemoryBankView {
 
             @Override
             public @Nullable Map<BlockPos, Memory> getMemories(ResourceLocation memoryKey) {
-                return bank.getMemories(memoryKey);
+                var memories = bank.getMemories(memoryKey);
+                var removed = memoriesToRemove.get(memoryKey);
+                if (memories == null || removed == null) return memories;
+                return Maps.filterKeys(memories, pos -> !removed.contains(pos));
             }
 
             @Override
@@ -64,10 +67,11 @@ public interface MemoryBankView {
 
             @Override
             public void remove(ResourceLocation id, BlockPos pos) {
-                bank.removeMemory(id, pos);
+                memoriesToRemove.computeIfAbsent(id, k -> new HashSet<>()).add(pos);
             }
 
             public void save() {
+                memoriesToRemove.forEach((key, positions) -> positions.forEach(pos -> bank.removeMemory(key, pos)));
                 for (ResourceLocation key : toRemove)
                     bank.removeKey(key);
                 bank.setMetadata(copy);
@@ -0,0 +1,87 @@
+package red.jackf.chesttracker.memory;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.world.item.ItemStack;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Inverted index from each distinct item in a memory key to the positions that hold it, so searches can check each
+ * distinct item once instead of every stack in every memory. Positions are packed using
+ * {@link net.minecraft.core.BlockPos#asLong()}.
+ * <p>
+ * Each item keeps one of the real stacks stored in a memory, so searches are checked against the same kind of stack
+ * as they would be when looking through memories directly.
+ */
+public class ItemIndex {
+    private final Map<LightweightStack, Entry> entries = new HashMap<>();
+
+    void add(long pos, Memory memory) {
+        for (ItemStack stack : memory.items()) {
+            var entry = entries.computeIfAbsent(new LightweightStack(stack), s -> new Entry());
+            entry.positions.add(pos);
+            // replace the stack if the memory it came from has changed or is gone
+            if (entry.stack == null || entry.stackPos == pos || !entry.positions.contains(entry.stackPos)) {
+                entry.stack = stack;
+                entry.stackPos = pos;
+            }
+        }
+    }
+
+    void remove(long pos, Memory memory) {
+        for (ItemStack stack : memory.items()) {
+            var lightweight = new LightweightStack(stack);
+            var entry = entries.get(lightweight);
+            if (entry != null && entry.positions.remove(pos) && entry.positions.isEmpty()) entries.remove(lightweight);
+        }
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Finds all distinct items that pass a given test, without collecting their positions.
+     *
+     * @param test    Test to run once on each distinct item, given a stack stored in one of the memories holding it.
+     * @param matched Set to add passing items to.
+     */
+    public void findMatchingItems(Predicate<ItemStack> test, Set<LightweightStack> matched) {
+        for (var entry : this.entries.entrySet())
+            if (test.test(entry.getValue().stack)) matched.add(entry.getKey());
+    }
+
+    /**
+     * Adds every position containing at least one of the given items to a set.
+     */
+    public void addPositions(Set<LightweightStack> items, LongSet positions) {
+        for (LightweightStack stack : items) {
+            var entry = this.entries.get(stack);
+            if (entry != null) positions.addAll(entry.positions);
+        }
+    }
+
+    /**
+     * Returns how many positions {@link #addPositions(Set, LongSet)} would look at for the given items, counting
+     * positions holding more than one of them multiple times.
+     */
+    public int countPositions(Set<LightweightStack> items) {
+        int count = 0;
+        for (LightweightStack stack : items) {
+            var entry = this.entries.get(stack);
+            if (entry != null) count += entry.positions.size();
+        }
+        return count;
+    }
+
+    private static class Entry {
+        private final LongSet positions = new LongOpenHashSet();
+        // stack from one of the memories holding this item, and where it is
+        private ItemStack stack = null;
+        private long stackPos;
+    }
+}
@@ -0,0 +1,69 @@
+package red.jackf.chesttracker.memory;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.block.Block;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Running totals of every item in a memory key, updated by delta as memories are added and removed. Also keeps a
+ * breakdown for each container block so container-filtered counts don't need to look at individual memories.
+ */
+public class ItemTotals {
+    private final Object2IntOpenHashMap<LightweightStack> totals = new Object2IntOpenHashMap<>();
+    private final Map<Block, Object2IntOpenHashMap<LightweightStack>> byContainer = new HashMap<>();
+
+    void add(Memory memory) {
+        var containerTotals = memory.container()
+                                    .map(block -> byContainer.computeIfAbsent(block, b -> new Object2IntOpenHashMap<>()))
+                                    .orElse(null);
+        for (ItemStack stack : memory.items()) {
+            var lightweight = new LightweightStack(stack);
+            totals.addTo(lightweight, stack.getCount());
+            if (containerTotals != null) containerTotals.addTo(lightweight, stack.getCount());
+        }
+    }
+
+    void remove(Memory memory) {
+        var containerTotals = memory.container().map(byContainer::get).orElse(null);
+        for (ItemStack stack : memory.items()) {
+            var lightweight = new LightweightStack(stack);
+            subtract(totals, lightweight, stack.getCount());
+            if (containerTotals != null) subtract(containerTotals, lightweight, stack.getCount());
+        }
+        if (containerTotals != null && containerTotals.isEmpty()) byContainer.remove(memory.container().get());
+    }
+
+    void clear() {
+        totals.clear();
+        byContainer.clear();
+    }
+
+    private static void subtract(Object2IntOpenHashMap<LightweightStack> map, LightweightStack stack, int count) {
+        if (map.addTo(stack, -count) <= count) map.removeInt(stack);
+    }
+
+    /**
+     * Returns a copy of the totals for every item, optionally only counting memories whose container passes a filter.
+     * Memories with an unknown container are only counted when there is no filter.
+     *
+     * @param containerFilter Filter for container blocks, or null to count every memory.
+     * @return Arbitrary order map of items to their total count.
+     */
+    public Map<LightweightStack, Integer> get(@Nullable Predicate<Block> containerFilter) {
+        if (containerFilter == null) return new HashMap<>(totals);
+
+        var result = new HashMap<LightweightStack, Integer>();
+        for (var entry : byContainer.entrySet()) {
+            if (!containerFilter.test(entry.getKey())) continue;
+            for (Object2IntMap.Entry<LightweightStack> count : entry.getValue().object2IntEntrySet())
+                result.merge(count.getKey(), count.getIntValue(), Integer::sum);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,105 @@
+package red.jackf.chesttracker.memory;
+
+import it.unimi.dsi.fastutil.longs.*;
+import net.minecraft.core.BlockPos;
+
+import java.util.Collection;
+
+/**
+ * Two-way map between memory positions and the extra positions linked to them, such as the other half of a double
+ * chest. Unlinking a memory only touches that memory's own links. Positions are packed using {@link BlockPos#asLong()}.
+ */
+public class LinkedPositions {
+    // linked position -> memory position
+    private final Long2LongMap roots = new Long2LongOpenHashMap();
+    // memory position -> linked positions
+    private final Long2ObjectMap<LongSet> linked = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * Link some positions to a memory position. Positions previously linked to a different memory are moved over.
+     */
+    void link(long root, Collection<BlockPos> positions) {
+        if (positions.isEmpty()) return;
+        var rootLinks = linked.computeIfAbsent(root, r -> new LongOpenHashSet());
+        for (BlockPos blockPos : positions) {
+            long pos = blockPos.asLong();
+            if (roots.containsKey(pos)) {
+                long previous = roots.get(pos);
+                if (previous != root) removeFrom(previous, pos);
+            }
+            roots.put(pos, root);
+            rootLinks.add(pos);
+        }
+    }
+
+    /**
+     * Remove all links to a memory position.
+     */
+    void unlink(long root) {
+        var rootLinks = linked.remove(root);
+        if (rootLinks == null) return;
+        var iter = rootLinks.iterator();
+        while (iter.hasNext()) {
+            long pos = iter.nextLong();
+            if (roots.containsKey(pos) && roots.get(pos) == root) roots.remove(pos);
+        }
+    }
+
+    void clear() {
+        roots.clear();
+        linked.clear();
+    }
+
+    /**
+     * @return The memory position a given position is linked to, or the position itself if not linked.
+     */
+    public long getRoot(long pos) {
+        return roots.getOrDefault(pos, pos);
+    }
+
+    private void removeFrom(long root, long pos) {
+        var rootLinks = linked.get(root);
+        if (rootLinks != null && rootLinks.remove(pos) && rootLinks.isEmpty()) linked.remove(root);
+    }
+
+    /**
+     * Checks that both directions agree, that every link points to an existing memory, and that no linked position
+     * holds a memory of its own. Any offending links are removed.
+     *
+     * @param memories Memories these links belong to.
+     * @return Number of invalid entries that were removed from either direction.
+     */
+    int validate(Long2ObjectMap<Memory> memories) {
+        int removed = 0;
+
+        var rootIter = roots.long2LongEntrySet().iterator();
+        while (rootIter.hasNext()) {
+            var entry = rootIter.next();
+            var rootLinks = linked.get(entry.getLongValue());
+            if (rootLinks == null
+                    || !rootLinks.contains(entry.getLongKey())
+                    || !memories.containsKey(entry.getLongValue())
+                    || memories.containsKey(entry.getLongKey())) {
+                rootIter.remove();
+                removed++;
+            }
+        }
+
+        var linkedIter = linked.long2ObjectEntrySet().iterator();
+        while (linkedIter.hasNext()) {
+            var entry = linkedIter.next();
+            long root = entry.getLongKey();
+            var posIter = entry.getValue().iterator();
+            while (posIter.hasNext()) {
+                long pos = posIter.nextLong();
+                if (!roots.containsKey(pos) || roots.get(pos) != root) {
+                    posIter.remove();
+                    removed++;
+                }
+            }
+            if (entry.getValue().isEmpty()) linkedIter.remove();
+        }
+
+        return removed;
+    }
+}
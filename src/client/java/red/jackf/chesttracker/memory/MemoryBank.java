@@ -1,18 +1,30 @@
 package red.jackf.chesttracker.memory;
 
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.mojang.datafixers.util.Pair;
 import com.mojang.serialization.Codec;
+import com.mojang.serialization.Dynamic;
+import com.mojang.serialization.DynamicOps;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.multiplayer.ClientLevel;
 import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.phys.Vec3;
+import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import red.jackf.chesttracker.ChestTracker;
 import red.jackf.chesttracker.api.provider.MemoryBuilder;
+import red.jackf.chesttracker.config.ChestTrackerConfig;
 import red.jackf.chesttracker.memory.metadata.Metadata;
 import red.jackf.chesttracker.provider.ProviderHandler;
 import red.jackf.chesttracker.storage.ConnectionSettings;
@@ -20,6 +32,7 @@ import red.jackf.chesttracker.storage.Storage;
 import red.jackf.chesttracker.util.CachedClientBlockSource;
 import red.jackf.chesttracker.util.MemoryUtil;
 import red.jackf.chesttracker.util.ModCodecs;
+import red.jackf.chesttracker.util.Timer;
 import red.jackf.jackfredlib.client.api.gps.Coordinate;
 import red.jackf.whereisit.api.SearchRequest;
 import red.jackf.whereisit.api.SearchResult;
@@ -27,42 +40,120 @@ import red.jackf.whereisit.api.search.ConnectedBlocksGrabber;
 
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 public class MemoryBank {
+    private static final Logger LOGGER = ChestTracker.getLogger("Memory Bank");
+
+    public static final Codec<Map<BlockPos, Memory>> KEY_CODEC = ModCodecs.makeMutableMap(
+            Codec.unboundedMap(
+                    ModCodecs.BLOCK_POS_STRING,
+                    Memory.CODEC
+            ));
+
     public static final Codec<Map<ResourceLocation, Map<BlockPos, Memory>>> MEMORIES_CODEC = ModCodecs.makeMutableMap(
             Codec.unboundedMap(
                     ResourceLocation.CODEC,
-                    ModCodecs.makeMutableMap(Codec.unboundedMap(
-                            ModCodecs.BLOCK_POS_STRING,
-                            Memory.CODEC
-                    ))
+                    KEY_CODEC
+            ));
+
+    /**
+     * Same layout as {@link #MEMORIES_CODEC}, but leaves each key in its serialized form so it can be decoded on first
+     * use. See {@link #fromRaw(Metadata, Map)} and {@link #getRawMemories(DynamicOps)}.
+     */
+    public static final Codec<Map<ResourceLocation, Dynamic<?>>> RAW_MEMORIES_CODEC = ModCodecs.makeMutableMap(
+            Codec.unboundedMap(
+                    ResourceLocation.CODEC,
+                    Codec.PASSTHROUGH
             ));
 
     public static final ResourceLocation ENDER_CHEST_KEY = ChestTracker.id("ender_chest");
 
+    // searches with more candidates than this from both in-memory indexes ask the storage backend's index first
+    private static final int STORED_SEARCH_THRESHOLD = 4096;
+
     @Nullable
     public static MemoryBank INSTANCE = null;
 
+    // default memory bank being loaded in the background while joining a world
+    @Nullable
+    private static PendingLoad pendingLoad = null;
+    @Nullable
+    private static LoadTiming lastLoadTiming = null;
+
+    private static String getDefaultId(Coordinate coordinate) {
+        var settings = ConnectionSettings.getOrCreate(coordinate.id());
+        return settings.memoryBankIdOverride().orElse(coordinate.id());
+    }
+
+    /**
+     * Start loading the default memory bank for a connection in the background, so it can overlap with the rest of
+     * joining. Picked up by {@link #loadDefault(Coordinate)} once the world is joined.
+     */
+    public static void startLoadingDefault(Coordinate coordinate) {
+        unload();
+        var id = getDefaultId(coordinate);
+        var future = CompletableFuture.supplyAsync(() -> Timer.time(() -> Storage.load(id)), Util.backgroundExecutor());
+        pendingLoad = new PendingLoad(id, future);
+        LOGGER.debug("Started loading {} in the background", id);
+    }
+
     /**
-     * Automatically get and load a default memory based on the current context and connection-specific settings
+     * Automatically get and load a default memory based on the current context and connection-specific settings. If
+     * the same memory bank was started loading in the background, waits for that instead.
      */
     public static void loadDefault(Coordinate coordinate) {
-        // not in-game; don't load
-        var settings = ConnectionSettings.getOrCreate(coordinate.id());
-        var id = settings.memoryBankIdOverride().orElse(coordinate.id());
-        loadOrCreate(id, Metadata.blankWithName(coordinate.userFriendlyName()));
+        var id = getDefaultId(coordinate);
+        var creationMetadata = Metadata.blankWithName(coordinate.userFriendlyName());
+        var pending = pendingLoad;
+        pendingLoad = null;
+        if (pending == null || !pending.id().equals(id)) {
+            loadOrCreate(id, creationMetadata);
+            return;
+        }
+
+        long waitStart = System.nanoTime();
+        Optional<MemoryBank> loaded;
+        try {
+            var result = pending.future().join();
+            loaded = result.getFirst();
+            long waited = System.nanoTime() - waitStart;
+            lastLoadTiming = new LoadTiming(result.getSecond(), Math.max(0, result.getSecond() - waited));
+            LOGGER.debug("Loaded {} in {}ns, {}ns before it was needed", id, result.getSecond(), lastLoadTiming.hiddenNanos());
+        } catch (CompletionException ex) {
+            LOGGER.error("Error loading {} in the background", id, ex);
+            loadOrCreate(id, creationMetadata);
+            return;
+        }
+
+        unload();
+        INSTANCE = loaded.orElseGet(() -> create(id, creationMetadata));
+        saveAsync();
     }
 
     public static void loadOrCreate(String id, @NotNull Metadata creationMetadata) {
         unload();
-        INSTANCE = Storage.load(id).orElseGet(() -> {
-            var bank = new MemoryBank(creationMetadata, new HashMap<>());
-            bank.setId(id);
-            return bank;
-        });
-        save();
+        var result = Timer.time(() -> Storage.load(id));
+        lastLoadTiming = new LoadTiming(result.getSecond(), 0);
+        INSTANCE = result.getFirst().orElseGet(() -> create(id, creationMetadata));
+        saveAsync();
+    }
+
+    private static MemoryBank create(String id, Metadata creationMetadata) {
+        var bank = new MemoryBank(creationMetadata, new HashMap<>());
+        bank.setId(id);
+        return bank;
+    }
+
+    /**
+     * Returns how long the last memory bank load took, and how much of that was hidden by loading in the background,
+     * or null if nothing has been loaded yet.
+     */
+    @Nullable
+    public static LoadTiming getLastLoadTiming() {
+        return lastLoadTiming;
     }
 
     public static void save() {
@@ -70,9 +161,21 @@ public class MemoryBank {
         Storage.save(INSTANCE);
     }
 
+    /**
+     * Save the current memory bank without waiting for it to be written, if enabled in the config. Otherwise, saves
+     * immediately.
+     */
+    public static void saveAsync() {
+        if (INSTANCE == null) return;
+        if (ChestTrackerConfig.INSTANCE.instance().storage.asyncSaving) Storage.saveAsync(INSTANCE);
+        else Storage.save(INSTANCE);
+    }
+
     public static void unload() {
+        pendingLoad = null;
         if (INSTANCE == null) return;
         save();
+        Storage.cache(INSTANCE);
         INSTANCE = null;
     }
 
@@ -80,35 +183,120 @@ public class MemoryBank {
     // OBJECT //
     ////////////
 
-    private final Map<ResourceLocation, Map<BlockPos, Memory>> memories;
-
-    // map of proxy positions to positions in the above map, changes lookup to O(1) i think
-    private final Map<ResourceLocation, Map<BlockPos, BlockPos>> linkedPositions = new HashMap<>();
-
-    // copy of memories with only named ones present for faster rendering iteration
-    private final Map<ResourceLocation, Map<BlockPos, Memory>> namedMemories = new HashMap<>();
+    private final Map<ResourceLocation, MemoryKey> memories = new HashMap<>();
+    // keys that haven't been used yet this session, still in their on-disk form
+    private final Map<ResourceLocation, Dynamic<?>> undecoded = new HashMap<>();
+    // undecoded keys that failed to decode; kept as they are so they're written back unchanged, and not retried
+    private final Set<ResourceLocation> undecodable = new HashSet<>();
+    // shares identical item NBT between packed memories
+    private final StackInterner interner = new StackInterner();
     private Metadata metadata;
     private String id;
 
+    private final MemoryChangeJournal journal = new MemoryChangeJournal();
+    private long version = 0;
+    // bank version as of the last save, or -1 if never saved
+    private long savedVersion = -1;
+    // bank version as of the last save known to be written to disk, or -1 if none this session
+    private long committedVersion = -1;
+
+    // latest published copy for other threads to read; only replaced on the render thread
+    private volatile MemoryBankSnapshot snapshot;
+    private boolean snapshotDirty = true;
+
     public MemoryBank(Metadata metadata, Map<ResourceLocation, Map<BlockPos, Memory>> map) {
         this.metadata = metadata;
-        this.memories = map;
+        addKeys(map);
+        publishSnapshot();
+    }
 
-        for (var entry : memories.entrySet()) {
-            for (var memory : entry.getValue().entrySet()) {
-                // load named memory cache
-                if (memory.getValue().name() != null)
-                    this.namedMemories.computeIfAbsent(entry.getKey(), k -> new HashMap<>())
-                                      .put(memory.getKey(), memory.getValue());
+    /**
+     * Build keys from decoded memories, each on its own thread in the common fork-join pool.
+     */
+    private void addKeys(Map<ResourceLocation, Map<BlockPos, Memory>> map) {
+        var result = Timer.time(() -> map.entrySet().parallelStream()
+                .map(entry -> Map.entry(entry.getKey(), new MemoryKey(interner, entry.getValue())))
+                .filter(entry -> !entry.getValue().isEmpty())
+                .toList());
+        result.getFirst().forEach(entry -> this.memories.put(entry.getKey(), entry.getValue()));
+        if (!map.isEmpty()) LOGGER.debug("Built {} keys in {}ns", map.size(), result.getSecond());
+    }
 
-                // load linked positions
-                addLinked(entry.getKey(), memory.getKey(), memory.getValue());
-            }
+    /**
+     * Decode serialized keys, each on its own thread in the common fork-join pool. Keys that fail to decode are
+     * logged and left out.
+     *
+     * @param raw Serialized keys, as decoded by {@link #RAW_MEMORIES_CODEC}
+     * @return Map of every successfully decoded key to its memories
+     */
+    public static Map<ResourceLocation, Map<BlockPos, Memory>> decodeKeys(Map<ResourceLocation, Dynamic<?>> raw) {
+        var decoded = new HashMap<ResourceLocation, Map<BlockPos, Memory>>();
+        raw.entrySet().parallelStream()
+                .flatMap(entry -> KEY_CODEC.parse(entry.getValue())
+                        .resultOrPartial(Util.prefix("Error decoding memory key " + entry.getKey() + ": ", LOGGER::error))
+                        .map(memories -> Map.entry(entry.getKey(), memories))
+                        .stream())
+                .toList()
+                .forEach(entry -> decoded.put(entry.getKey(), entry.getValue()));
+        return decoded;
+    }
+
+    /**
+     * Create a memory bank from keys in their serialized form. Each key is only decoded the first time it's used, and
+     * keys that never are get written back as they were loaded.
+     *
+     * @param metadata Metadata for the memory bank
+     * @param raw      Serialized keys, as decoded by {@link #RAW_MEMORIES_CODEC}
+     */
+    public static MemoryBank fromRaw(Metadata metadata, Map<ResourceLocation, Dynamic<?>> raw) {
+        return fromRaw(metadata, raw, new HashMap<>());
+    }
+
+    /**
+     * Create a memory bank from a mix of serialized and already decoded keys. Serialized keys are decoded on first use.
+     *
+     * @param metadata Metadata for the memory bank
+     * @param raw      Serialized keys, as decoded by {@link #RAW_MEMORIES_CODEC}
+     * @param decoded  Already decoded keys. Takes priority over any serialized key with the same ID.
+     */
+    public static MemoryBank fromRaw(
+            Metadata metadata,
+            Map<ResourceLocation, Dynamic<?>> raw,
+            Map<ResourceLocation, Map<BlockPos, Memory>> decoded) {
+        var bank = new MemoryBank(metadata, decoded);
+        raw.forEach((key, value) -> {
+            if (!decoded.containsKey(key)) bank.undecoded.put(key, value);
+        });
+        bank.snapshotDirty = true;
+        bank.publishSnapshot();
+        return bank;
+    }
+
+    @Nullable
+    private MemoryKey getKey(ResourceLocation key) {
+        var memoryKey = memories.get(key);
+        if (memoryKey != null) return memoryKey;
+        var raw = undecoded.get(key);
+        if (raw == null || undecodable.contains(key)) return null;
+
+        var result = Timer.time(() -> KEY_CODEC.parse(raw)
+                .resultOrPartial(Util.prefix("Error decoding memory key " + key + ": ", LOGGER::error))
+                .map(decoded -> new MemoryKey(interner, decoded)));
+        LOGGER.debug("Decoded key {} in {}ns", key, result.getSecond());
+        if (result.getFirst().isEmpty()) {
+            undecodable.add(key);
+            return null;
         }
+
+        undecoded.remove(key);
+        if (result.getFirst().get().isEmpty()) return null;
+        memories.put(key, result.getFirst().get());
+        return result.getFirst().get();
     }
 
     public void setId(String id) {
         this.id = id;
+        this.snapshotDirty = true;
     }
 
     public String getId() {
@@ -121,6 +309,123 @@ public class MemoryBank {
 
     public void setMetadata(Metadata metadata) {
         this.metadata = metadata;
+        this.snapshotDirty = true;
+    }
+
+    public StackInterner getInterner() {
+        return interner;
+    }
+
+    /**
+     * Returns the latest published snapshot of this bank. Safe to call and read from any thread; changes made since
+     * the last {@link #publishSnapshot()} call won't be present.
+     */
+    public MemoryBankSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Publish and return a new snapshot with up-to-date metadata, even if no memories have changed since the last.
+     */
+    public MemoryBankSnapshot takeSnapshot() {
+        snapshotDirty = true;
+        publishSnapshot();
+        return snapshot;
+    }
+
+    /**
+     * Publish a new snapshot if this bank has changed since the last one. Called once a tick, after that tick's
+     * changes; keys that haven't changed reuse their previous copy.
+     */
+    public void publishSnapshot() {
+        if (!snapshotDirty) return;
+        var keys = new HashMap<ResourceLocation, Map<BlockPos, Memory>>();
+        memories.forEach((key, memoryKey) -> keys.put(key, memoryKey.getSnapshot()));
+        var previous = this.snapshot;
+        this.snapshot = new MemoryBankSnapshot(
+                id,
+                metadata.deepCopy(),
+                Collections.unmodifiableMap(keys),
+                Map.copyOf(undecoded),
+                previous == null ? 0 : previous.version() + 1);
+        snapshotDirty = false;
+    }
+
+    /**
+     * Returns this bank's version, which increases by one on every change to its memories.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the bank version as of the last change to a given key, or -1 if the key doesn't exist. Versions are
+     * shared across the whole bank, so a key that was removed and re-added never repeats an earlier version.
+     */
+    public long getVersion(ResourceLocation key) {
+        if (undecoded.containsKey(key)) return 0;
+        var memoryKey = memories.get(key);
+        return memoryKey == null ? -1 : memoryKey.getVersion();
+    }
+
+    /**
+     * Whether this bank's memories have changed since it was last saved or loaded. Metadata is checked separately by
+     * backends, as the loaded time changes every tick.
+     */
+    public boolean hasUnsavedMemories() {
+        return version != savedVersion;
+    }
+
+    /**
+     * Returns the bank version as of the last save, or -1 if it has never been saved.
+     */
+    public long getSavedVersion() {
+        return savedVersion;
+    }
+
+    /**
+     * Mark this bank's memories as saved as of a given version.
+     *
+     * @param version Bank version that was saved, from {@link #getVersion()}.
+     */
+    public void markSaved(long version) {
+        this.savedVersion = version;
+    }
+
+    /**
+     * Mark this bank's memories as written to disk as of a given version, once a save has actually finished. Unlike
+     * {@link #markSaved(long)}, this is only called after the fact, so can be used to trust what's on disk.
+     *
+     * @param version Bank version that was written, from {@link #getVersion()}.
+     */
+    public void markCommitted(long version) {
+        this.committedVersion = version;
+    }
+
+    /**
+     * Mark this bank's memories as needing to be written on the next save, such as after a failed save or a change in
+     * file format.
+     */
+    public void markUnsaved() {
+        this.savedVersion = -1;
+    }
+
+    /**
+     * Returns a log of the most recent changes to this bank's memories.
+     */
+    public MemoryChangeJournal getJournal() {
+        return journal;
+    }
+
+    private void recordChange(ResourceLocation key, @Nullable BlockPos pos, MemoryChangeJournal.Operation operation) {
+        version++;
+        var memoryKey = memories.get(key);
+        if (memoryKey != null) memoryKey.setVersion(version);
+        snapshotDirty = true;
+
+        var change = new MemoryChangeJournal.Change(version, key, pos, operation);
+        journal.record(change);
+        MemoryChangeListener.EVENT.invoker().onMemoryChanged(this, change);
     }
 
     ///////////////////////
@@ -128,10 +433,28 @@ public class MemoryBank {
     ///////////////////////
 
     /**
-     * @return All memories in every key of this bank
+     * @return All memories in every key of this bank. Decodes every key that hasn't been used yet; keys that fail to
+     * decode are left out, and kept in their serialized form for saving.
      */
     public Map<ResourceLocation, Map<BlockPos, Memory>> getMemories() {
-        return memories;
+        if (undecoded.size() > undecodable.size()) {
+            var decoded = decodeKeys(Maps.filterKeys(undecoded, key -> !undecodable.contains(key)));
+            addKeys(decoded);
+            undecoded.keySet().removeAll(decoded.keySet());
+            undecodable.addAll(undecoded.keySet());
+        }
+        return Collections.unmodifiableMap(Maps.transformValues(memories, MemoryKey::getMemories));
+    }
+
+    /**
+     * Returns every key of this bank in serialized form, for saving. Keys that were never decoded are passed through
+     * as they were loaded.
+     *
+     * @param ops Format to encode decoded keys with
+     * @return Map of every key to its serialized memories, to be encoded with {@link #RAW_MEMORIES_CODEC}.
+     */
+    public <T> Map<ResourceLocation, Dynamic<?>> getRawMemories(DynamicOps<T> ops) {
+        return takeSnapshot().getRawMemories(ops);
     }
 
     /**
@@ -142,7 +465,8 @@ public class MemoryBank {
      */
     @Nullable
     public Map<BlockPos, Memory> getMemories(ResourceLocation key) {
-        return memories.get(key);
+        var memoryKey = getKey(key);
+        return memoryKey == null ? null : memoryKey.getMemories();
     }
 
     /**
@@ -153,7 +477,8 @@ public class MemoryBank {
      */
     @Nullable
     public Map<BlockPos, Memory> getNamedMemories(ResourceLocation key) {
-        return namedMemories.get(key);
+        var memoryKey = getKey(key);
+        return memoryKey == null ? null : memoryKey.getNamedMemories();
     }
 
     /**
@@ -175,34 +500,31 @@ public class MemoryBank {
         for (BlockPos otherPos : memory.otherPositions())
             removeMemory(key, otherPos);
 
-        _addMemory(memories, key, pos, memory);
-        if (memory.name() != null) _addMemory(namedMemories, key, pos, memory);
-        addLinked(key, pos, memory);
-    }
-
-    private static void _addMemory(
-            Map<ResourceLocation, Map<BlockPos, Memory>> map,
-            ResourceLocation key,
-            BlockPos pos,
-            Memory memory) {
-        var keyMemories = map.get(key);
-        if (memory.isEmpty() && keyMemories != null && memory.name() == null) {
-            keyMemories.remove(pos);
-            if (keyMemories.isEmpty()) map.remove(key);
-        } else {
-            if (keyMemories == null) {
-                keyMemories = new HashMap<>();
-                map.put(key, keyMemories);
+        var memoryKey = getKey(key);
+        if (memoryKey == null) {
+            if (memory.isEmpty() && memory.name() == null) return;
+            memoryKey = new MemoryKey(interner);
+            memories.put(key, memoryKey);
+            if (undecodable.remove(key)) {
+                undecoded.remove(key);
+                LOGGER.warn("Replacing memory key {}, which couldn't be decoded", key);
             }
-            keyMemories.put(pos, memory);
         }
+        memoryKey.put(pos, memory);
+        if (memoryKey.isEmpty()) memories.remove(key);
+        recordChange(key, pos.immutable(), MemoryChangeJournal.Operation.CHANGED);
     }
 
-    private void addLinked(ResourceLocation key, BlockPos pos, Memory memory) {
-        if (!memory.otherPositions().isEmpty()) {
-            var keyMap = this.linkedPositions.computeIfAbsent(key, k -> new HashMap<>());
-            memory.otherPositions().forEach(linkedPos -> keyMap.put(linkedPos, pos));
-        }
+    /**
+     * Returns the memory at a given position and memory key, or null if none present.
+     *
+     * @param key Memory key to look up
+     * @param pos Position to look up in said key
+     */
+    @Nullable
+    public Memory getMemory(ResourceLocation key, BlockPos pos) {
+        var memoryKey = getKey(key);
+        return memoryKey == null ? null : memoryKey.get(pos.asLong());
     }
 
     /**
@@ -212,24 +534,11 @@ public class MemoryBank {
      * @param pos Position to remove in said key
      */
     public void removeMemory(ResourceLocation key, BlockPos pos) {
-        if (linkedPositions.getOrDefault(key, Collections.emptyMap()).containsKey(pos))
-            pos = linkedPositions.get(key).get(pos);
-        _removeMemory(memories, key, pos);
-        _removeMemory(namedMemories, key, pos);
-        //noinspection StatementWithEmptyBody
-        while (linkedPositions.getOrDefault(key, Collections.emptyMap()).values().remove(pos)) ;
-    }
-
-    private static void _removeMemory(
-            Map<ResourceLocation, Map<BlockPos, Memory>> map,
-            ResourceLocation key,
-            BlockPos pos) {
-        if (map.containsKey(key)) {
-            map.get(key).remove(pos);
-            if (map.get(key).isEmpty()) {
-                map.remove(key);
-            }
-        }
+        var memoryKey = getKey(key);
+        if (memoryKey == null) return;
+        var removed = memoryKey.remove(pos);
+        if (memoryKey.isEmpty()) memories.remove(key);
+        if (removed != null) recordChange(key, removed, MemoryChangeJournal.Operation.REMOVED);
     }
 
     /**
@@ -238,87 +547,213 @@ public class MemoryBank {
      * @param key Key to remove
      */
     public void removeKey(ResourceLocation key) {
-        memories.remove(key);
-        namedMemories.remove(key);
-        linkedPositions.remove(key);
+        var memoryKey = memories.remove(key);
+        if (memoryKey != null) memoryKey.release();
+        boolean removed = memoryKey != null;
+        if (undecoded.remove(key) != null) removed = true;
+        undecodable.remove(key);
+        if (removed) recordChange(key, null, MemoryChangeJournal.Operation.KEY_REMOVED);
+    }
+
+    /**
+     * Returns a list of counts of all items in a given key. Not sorted in any particular order.
+     *
+     * @param key Memory Key to count and return
+     * @return Arbitrary order list of all items in a given memory key.
+     */
+    public Map<LightweightStack, Integer> getCounts(ResourceLocation key) {
+        return getCounts(key, null);
     }
 
     /**
      * Returns a list of counts of items in a given key; used in the main screen. Not sorted in any particular order.
+     * Counts are kept up to date as memories change, so this only costs as much as the number of distinct items.
      *
-     * @param key    Memory Key to count and return
-     * @param filter Filter to apply to memory entries before getting counted.
+     * @param key             Memory Key to count and return
+     * @param containerFilter Filter for which container blocks to count memories from, or null to count all.
      * @return Arbitrary order list of all items in a given memory key.
      */
-    public Map<LightweightStack, Integer> getCounts(
-            ResourceLocation key,
-            Predicate<Map.Entry<BlockPos, Memory>> filter) {
-        if (memories.containsKey(key))
-            return memories.get(key).entrySet().stream()
-                           .filter(filter)
-                           .flatMap(data -> data.getValue().items().stream())
-                           .collect(Collectors.toMap(stack -> new LightweightStack(stack.getItem(),
-                                                                                   stack.getTag()), ItemStack::getCount, Integer::sum, HashMap::new));
-        else
-            return Collections.emptyMap();
-    }
-
-    /*
-     * Returns a list of counts of items in a given key at most <code>maxDistance</code> blocks away; used in the main
-     * screen. Not sorted in any particular order.
+    public Map<LightweightStack, Integer> getCounts(ResourceLocation key, @Nullable Predicate<Block> containerFilter) {
+        var memoryKey = getKey(key);
+        if (memoryKey == null) return Collections.emptyMap();
+        return memoryKey.getTotals().get(containerFilter);
+    }
+
+    /**
+     * Returns a list of counts of items in a given key less than <code>maxDistance</code> blocks away; used in the main
+     * screen. Not sorted in any particular order. Only memories in chunk sections overlapping the range are checked.
      *
-     * @param key Memory Key to count and return
+     * @param key             Memory Key to count and return
+     * @param containerFilter Filter for which container blocks to count memories from, or null to count all.
+     * @param origin          Position to measure distance from
+     * @param maxDistance     Maximum distance from the origin to count memories; {@link Integer#MAX_VALUE} for unlimited.
      * @return Arbitrary order list of all items in a given memory key.
      */
-    /*public Map<LightweightStack, Integer> getCounts(ResourceLocation key, Vec3 origin, int maxDistance) {
-        long maxSquare = (long) maxDistance * maxDistance;
-        if (memories.containsKey(key))
-            return memories.get(key).entrySet().stream()
-                           .filter(entry -> entry.getKey().getCenter().distanceToSqr(origin) < maxSquare)
-                           .flatMap(data -> data.getValue().items().stream())
-                           .collect(Collectors.toMap(stack -> new LightweightStack(stack.getItem(),
-                                                                                   stack.getTag()), ItemStack::getCount, Integer::sum, HashMap::new));
-        else
-            return Collections.emptyMap();
-    }*/
+    public Map<LightweightStack, Integer> getCounts(
+            ResourceLocation key,
+            @Nullable Predicate<Block> containerFilter,
+            Vec3 origin,
+            int maxDistance) {
+        var memoryKey = getKey(key);
+        if (memoryKey == null) return Collections.emptyMap();
+        if (maxDistance == Integer.MAX_VALUE || memoryKey.isAllWithinRange(origin, maxDistance, false))
+            return memoryKey.getTotals().get(containerFilter);
+
+        var counts = new HashMap<LightweightStack, Integer>();
+        memoryKey.forEachWithinRange(origin, maxDistance, false, (pos, memory) -> {
+            if (containerFilter != null && !memory.container().map(containerFilter::test).orElse(false)) return;
+            for (ItemStack stack : memory.items())
+                counts.merge(new LightweightStack(stack), stack.getCount(), Integer::sum);
+        });
+        return counts;
+    }
 
     /**
-     * Parse a Where Is It search-request and runs it through a given dimension's memories.
+     * Parse a Where Is It search-request and runs it through a given dimension's memories. The request is checked once
+     * against each distinct item in the key. Matching memories are then found through whichever index looks at fewer
+     * of them: the item index, for rare items, or the spatial index, for common items with a limited search range. If
+     * both would look at many memories, the storage backend's item index on disk is queried in the background instead
+     * where available.
      *
      * @param key     Memory key to run the request through
      * @param request Search request to run on all memories
-     * @return A list of search requests consisting of matching memories in this key.
-     */
-    public List<SearchResult> getPositions(ResourceLocation key, SearchRequest request) {
-        if (memories.containsKey(key)) {
-            var results = new ArrayList<SearchResult>();
-            final Vec3 startPos = Minecraft.getInstance().player != null ? Minecraft.getInstance().player.position() : null;
-            if (startPos == null) return Collections.emptyList();
-            final int range = metadata.getSearchSettings().searchRange;
-            final double rangeSquared = range == Integer.MAX_VALUE ? Integer.MAX_VALUE : range * range;
-            for (Map.Entry<BlockPos, Memory> entry : memories.get(key).entrySet()) {
-                if (entry.getKey().distToCenterSqr(startPos) > rangeSquared) continue;
-                var matchedItem = entry.getValue().items().stream().filter(item -> SearchRequest.check(item, request))
-                                       .findFirst();
-                if (matchedItem.isEmpty()) continue;
-                var offset = MemoryUtil.getAverageNameOffset(entry.getKey(), entry.getValue().otherPositions());
-                results.add(SearchResult.builder(entry.getKey())
-                                        .item(matchedItem.get())
-                                        .name(entry.getValue().name(), offset)
-                                        .otherPositions(entry.getValue().otherPositions())
-                                        .build());
+     * @return A future list of search requests consisting of matching memories in this key, completed on the render
+     * thread.
+     */
+    public CompletableFuture<List<SearchResult>> getPositions(ResourceLocation key, SearchRequest request) {
+        var memoryKey = getKey(key);
+        if (memoryKey == null) return CompletableFuture.completedFuture(Collections.emptyList());
+        final Vec3 startPos = Minecraft.getInstance().player != null ? Minecraft.getInstance().player.position() : null;
+        if (startPos == null) return CompletableFuture.completedFuture(Collections.emptyList());
+
+        var itemIndex = memoryKey.getItemIndex();
+        Set<LightweightStack> matchedStacks = new HashSet<>();
+        itemIndex.findMatchingItems(stack -> SearchRequest.check(stack, request), matchedStacks);
+        if (matchedStacks.isEmpty()) return CompletableFuture.completedFuture(Collections.emptyList());
+
+        final int range = metadata.getSearchSettings().searchRange;
+        if (range != Integer.MAX_VALUE) {
+            int nearby = memoryKey.countCandidatesWithinRange(startPos, range, true);
+            int indexed = itemIndex.countPositions(matchedStacks);
+            if (Math.min(nearby, indexed) > STORED_SEARCH_THRESHOLD) {
+                var stored = searchStored(key, matchedStacks, startPos, range);
+                if (stored != null) return stored;
             }
-            return results;
-        } else {
-            return Collections.emptyList();
+
+            if (nearby < indexed) {
+                var results = new ArrayList<SearchResult>();
+                memoryKey.forEachWithinRange(startPos, range, true, (pos, memory) -> {
+                    var result = makeSearchResult(pos, memory, matchedStacks);
+                    if (result != null) results.add(result);
+                });
+                return CompletableFuture.completedFuture(results);
+            }
+        }
+
+        var candidates = new LongOpenHashSet();
+        itemIndex.addPositions(matchedStacks, candidates);
+        return CompletableFuture.completedFuture(checkCandidates(memoryKey, candidates, matchedStacks, startPos, range));
+    }
+
+    /**
+     * Ask the storage backend in the background which positions held any of the matched items within range as of the
+     * last save known to be written, then add any positions changed since and check every candidate against the
+     * memories as they are once the query finishes. Falls back to the in-memory item index if the backend can't answer.
+     *
+     * @return Future search results, or null if nothing has been written to disk for this bank this session.
+     */
+    @Nullable
+    private CompletableFuture<List<SearchResult>> searchStored(ResourceLocation key, Set<LightweightStack> matchedStacks, Vec3 origin, int range) {
+        if (id == null || committedVersion == -1) return null;
+        final long queriedVersion = committedVersion;
+
+        var items = new HashSet<Item>();
+        for (LightweightStack stack : matchedStacks) items.add(stack.item());
+        return Storage.findItemPositions(id, key, items, origin, range).thenApplyAsync(stored -> {
+            var memoryKey = getKey(key);
+            if (memoryKey == null) return Collections.emptyList();
+
+            // anything written since the queried version only makes the results more up to date
+            var changes = journal.since(queriedVersion);
+            LongSet candidates;
+            if (stored.isPresent() && changes != null) {
+                candidates = stored.get();
+                for (MemoryChangeJournal.Change change : changes)
+                    if (change.key().equals(key) && change.pos() != null) candidates.add(change.pos().asLong());
+            } else {
+                candidates = new LongOpenHashSet();
+                memoryKey.getItemIndex().addPositions(matchedStacks, candidates);
+            }
+            return checkCandidates(memoryKey, candidates, matchedStacks, origin, range);
+        }, Minecraft.getInstance());
+    }
+
+    private static List<SearchResult> checkCandidates(MemoryKey memoryKey, LongSet candidates, Set<LightweightStack> matchedStacks, Vec3 origin, int range) {
+        final double rangeSquared = range == Integer.MAX_VALUE ? Double.MAX_VALUE : (double) range * range;
+        var results = new ArrayList<SearchResult>();
+        var iter = candidates.iterator();
+        while (iter.hasNext()) {
+            var pos = BlockPos.of(iter.nextLong());
+            if (pos.distToCenterSqr(origin) > rangeSquared) continue;
+            var memory = memoryKey.get(pos.asLong());
+            if (memory == null) continue;
+            var result = makeSearchResult(pos, memory, matchedStacks);
+            if (result != null) results.add(result);
         }
+        return results;
+    }
+
+    @Nullable
+    private static SearchResult makeSearchResult(BlockPos pos, Memory memory, Set<LightweightStack> matchedStacks) {
+        var matchedItem = memory.items().stream()
+                                .filter(item -> matchedStacks.contains(new LightweightStack(item)))
+                                .findFirst();
+        if (matchedItem.isEmpty()) return null;
+        var offset = MemoryUtil.getAverageNameOffset(pos, memory.otherPositions());
+        return SearchResult.builder(pos)
+                           .item(matchedItem.get())
+                           .name(memory.name(), offset)
+                           .otherPositions(memory.otherPositions())
+                           .build();
+    }
+
+    /**
+     * Returns the positions, timestamps and named flags of every memory in a key, without unpacking or decoding it.
+     *
+     * @param key Memory key to look up
+     * @return Timestamp columns for the given key, or null if the key doesn't exist.
+     */
+    @Nullable
+    public MemoryTimestamps getTimestamps(ResourceLocation key) {
+        var memoryKey = memories.get(key);
+        if (memoryKey != null) return memoryKey.getTimestamps();
+        var raw = undecoded.get(key);
+        return raw == null ? null : MemoryTimestamps.fromRaw(raw);
+    }
+
+    /**
+     * Packs every key except the current one that hasn't been used since the last call, to save memory on banks with
+     * many dimensions.
+     *
+     * @param currentKey Key the player is currently in, which is never packed.
+     */
+    public void packIdleKeys(@Nullable ResourceLocation currentKey) {
+        for (var entry : memories.entrySet())
+            if (!entry.getKey().equals(currentKey)) entry.getValue().packIfIdle();
+    }
+
+    /**
+     * Returns how many keys in this bank are currently packed.
+     */
+    public int getPackedKeyCount() {
+        return (int) memories.values().stream().filter(MemoryKey::isPacked).count();
     }
 
     /**
      * Returns a list of all memory keys in this bank.
      */
     public Set<ResourceLocation> getKeys() {
-        return memories.keySet();
+        return Sets.union(memories.keySet(), undecoded.keySet());
     }
 
     /**
@@ -353,4 +788,12 @@ public class MemoryBank {
         if (memoryKeys == null) return null;
         return memoryKeys.get(pos);
     }
+
+    private record PendingLoad(String id, CompletableFuture<Pair<Optional<MemoryBank>, Long>> future) {}
+
+    /**
+     * @param totalNanos  Time taken to load the memory bank.
+     * @param hiddenNanos Time spent loading in the background before the memory bank was needed.
+     */
+    public record LoadTiming(long totalNanos, long hiddenNanos) {}
 }
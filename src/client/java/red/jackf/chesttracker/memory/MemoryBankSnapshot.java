@@ -0,0 +1,91 @@
+package red.jackf.chesttracker.memory;
+
+import com.google.common.collect.Sets;
+import com.mojang.serialization.Dynamic;
+import com.mojang.serialization.DynamicOps;
+import net.minecraft.Util;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.memory.metadata.Metadata;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of a {@link MemoryBank} at a point in time, safe to read from any thread. Keys that haven't changed
+ * between snapshots share the same map, so publishing a new snapshot only copies the keys that were touched.
+ *
+ * @param id        ID of the bank at the time of the snapshot.
+ * @param metadata  Copy of the bank's metadata at the time of the snapshot. Should not be modified.
+ * @param memories  Unmodifiable map of every decoded key to its memories.
+ * @param undecoded Unmodifiable map of keys that haven't been decoded yet, in their serialized form.
+ * @param version   Increases every time a snapshot is published for the same bank.
+ */
+public record MemoryBankSnapshot(
+        String id,
+        Metadata metadata,
+        Map<ResourceLocation, Map<BlockPos, Memory>> memories,
+        Map<ResourceLocation, Dynamic<?>> undecoded,
+        long version) {
+    private static final Logger LOGGER = ChestTracker.getLogger("Snapshot");
+
+    /**
+     * Returns the memories in a specific key, or null if non-existent or not yet decoded
+     */
+    @Nullable
+    public Map<BlockPos, Memory> getMemories(ResourceLocation key) {
+        return memories.get(key);
+    }
+
+    public Set<ResourceLocation> getKeys() {
+        return Sets.union(memories.keySet(), undecoded.keySet());
+    }
+
+    /**
+     * Returns the total number of memories across every key, without decoding any.
+     */
+    public int getMemoryCount() {
+        int count = 0;
+        for (var keyMemories : memories.values()) count += keyMemories.size();
+        for (var raw : undecoded.values()) count += raw.getMapValues().result().map(Map::size).orElse(0);
+        return count;
+    }
+
+    /**
+     * Returns the number of memories in each key, without decoding any.
+     */
+    public Map<ResourceLocation, Integer> getKeyCounts() {
+        var counts = new HashMap<ResourceLocation, Integer>();
+        memories.forEach((key, keyMemories) -> counts.put(key, keyMemories.size()));
+        undecoded.forEach((key, raw) -> counts.put(key, raw.getMapValues().result().map(Map::size).orElse(0)));
+        return counts;
+    }
+
+    /**
+     * Returns every key in decoded form, decoding any that haven't been yet. Keys that fail to decode are skipped.
+     */
+    public Map<ResourceLocation, Map<BlockPos, Memory>> getAllMemories() {
+        var all = new HashMap<>(memories);
+        if (!undecoded.isEmpty()) all.putAll(MemoryBank.decodeKeys(undecoded));
+        return all;
+    }
+
+    /**
+     * Returns every key in serialized form, for saving. Keys that were never decoded are passed through as they were
+     * loaded.
+     *
+     * @param ops Format to encode decoded keys with
+     * @return Map of every key to its serialized memories, to be encoded with {@link MemoryBank#RAW_MEMORIES_CODEC}.
+     */
+    public <T> Map<ResourceLocation, Dynamic<?>> getRawMemories(DynamicOps<T> ops) {
+        var raw = new HashMap<ResourceLocation, Dynamic<?>>(undecoded);
+        memories.forEach((key, keyMemories) -> MemoryBank.KEY_CODEC.encodeStart(ops, keyMemories)
+                .resultOrPartial(Util.prefix("Error encoding memory key " + key + ": ", LOGGER::error))
+                .ifPresent(encoded -> raw.put(key, new Dynamic<>(ops, encoded))));
+        return raw;
+    }
+}
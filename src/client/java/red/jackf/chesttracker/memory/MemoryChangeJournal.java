@@ -0,0 +1,71 @@
+package red.jackf.chesttracker.memory;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded log of the most recent changes to a {@link MemoryBank}, so anything caching data from the bank can apply
+ * just what changed since it last looked instead of starting over. Older changes are dropped once full.
+ */
+public class MemoryChangeJournal {
+    private static final int CAPACITY = 1024;
+
+    private final Change[] changes = new Change[CAPACITY];
+    private int next = 0;
+    private int size = 0;
+
+    void record(Change change) {
+        changes[next] = change;
+        next = (next + 1) % CAPACITY;
+        if (size < CAPACITY) size++;
+    }
+
+    /**
+     * Returns every change made after a given bank version, oldest first.
+     *
+     * @param version Bank version to get changes since, from {@link MemoryBank#getVersion()}.
+     * @return List of changes after the given version, or null if some have already been dropped from the journal, in
+     * which case the caller should refresh everything.
+     */
+    @Nullable
+    public List<Change> since(long version) {
+        int start = Math.floorMod(next - size, CAPACITY);
+        // something newer than the given version was dropped, so the journal is incomplete
+        if (size == CAPACITY && changes[start].version() > version + 1) return null;
+
+        var result = new ArrayList<Change>();
+        for (int i = 0; i < size; i++) {
+            var change = changes[(start + i) % CAPACITY];
+            if (change.version() > version) result.add(change);
+        }
+        return result;
+    }
+
+    public enum Operation {
+        /**
+         * A memory was added or replaced at the position. It may have been removed instead if the new memory was
+         * empty, so look up the current state.
+         */
+        CHANGED,
+        /**
+         * The memory at the position was removed.
+         */
+        REMOVED,
+        /**
+         * Every memory in the key was removed. Position is null.
+         */
+        KEY_REMOVED
+    }
+
+    /**
+     * @param version   Bank version after this change.
+     * @param key       Memory key this change happened in.
+     * @param pos       Position of the changed memory, or null for {@link Operation#KEY_REMOVED}.
+     * @param operation What happened at this position.
+     */
+    public record Change(long version, ResourceLocation key, @Nullable BlockPos pos, Operation operation) {}
+}
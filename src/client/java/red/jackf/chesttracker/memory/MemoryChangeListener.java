@@ -0,0 +1,21 @@
+package red.jackf.chesttracker.memory;
+
+import net.fabricmc.fabric.api.event.Event;
+import net.fabricmc.fabric.api.event.EventFactory;
+
+/**
+ * Called after each change to the memories in a {@link MemoryBank}.
+ */
+public interface MemoryChangeListener {
+    Event<MemoryChangeListener> EVENT = EventFactory.createArrayBacked(MemoryChangeListener.class, invokers -> (bank, change) -> {
+        for (MemoryChangeListener invoker : invokers)
+            invoker.onMemoryChanged(bank, change);
+    });
+
+    /**
+     * Called after a memory or key in a bank changes.
+     * @param bank Memory bank that was changed.
+     * @param change Details of what changed, also recorded in the bank's {@link MemoryChangeJournal}.
+     */
+    void onMemoryChanged(MemoryBank bank, MemoryChangeJournal.Change change);
+}
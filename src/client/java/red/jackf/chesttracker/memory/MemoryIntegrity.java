@@ -8,6 +8,7 @@ import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.MenuProvider;
 import net.minecraft.world.level.Level;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import red.jackf.chesttracker.ChestTracker;
 import red.jackf.chesttracker.api.events.AfterPlayerDestroyBlock;
 import red.jackf.chesttracker.provider.ProviderHandler;
@@ -15,8 +16,6 @@ import red.jackf.chesttracker.provider.ProviderHandler;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
 
 /**
  * Tries to keep memories valid, by tracking block breaking and timing out old memories
@@ -33,7 +32,9 @@ public class MemoryIntegrity {
     public static final long UNKNOWN_WORLD_TIMESTAMP = -437821L;
     public static final Instant UNKNOWN_REAL_TIMESTAMP = Instant.EPOCH;
 
-    private static final List<Map.Entry<BlockPos, Memory>> currentEntryList = new ArrayList<>();
+    // only the positions and timestamps are needed, so memories in packed keys don't need to be created
+    @Nullable
+    private static MemoryTimestamps currentEntries = null;
     private static long lastEntryCheckCompleteTick = -1L;
     private static int currentEntryKeyIndex = 0;
     private static ResourceLocation currentEntryKey = Level.OVERWORLD.location();
@@ -56,53 +57,53 @@ public class MemoryIntegrity {
         ClientTickEvents.END_WORLD_TICK.register(level -> {
             if (MemoryBank.INSTANCE == null) {
                 lastEntryCheckCompleteTick = -1;
-                currentEntryList.clear();
+                currentEntries = null;
                 return;
             }
 
             var integrity = MemoryBank.INSTANCE.getMetadata().getIntegritySettings();
 
-            if (currentEntryList.isEmpty() && level.getGameTime() >= lastEntryCheckCompleteTick + TICKS_BETWEEN_ENTRY_REFILL) {
+            if (currentEntries == null && level.getGameTime() >= lastEntryCheckCompleteTick + TICKS_BETWEEN_ENTRY_REFILL) {
+                // keys not yet used this session are read without decoding, and only decoded if something expires
                 var keys = new ArrayList<>(MemoryBank.INSTANCE.getKeys());
                 if (keys.isEmpty()) return;
                 if (currentEntryKeyIndex >= keys.size()) currentEntryKeyIndex = 0;
                 currentEntryKey = keys.get(currentEntryKeyIndex++);
-                var current = MemoryBank.INSTANCE.getMemories(currentEntryKey);
-                if (current != null && !current.isEmpty()) {
+                var current = MemoryBank.INSTANCE.getTimestamps(currentEntryKey);
+                if (current != null && current.size() > 0) {
                     LOGGER.debug("Refreshing entry list <{}> @ {}", currentEntryKey, level.getGameTime());
-                    currentEntryList.addAll(current.entrySet());
+                    currentEntries = current;
 
                     lastEntryListIndex = 0;
                 }
             }
 
-            if (currentEntryList.isEmpty()) return;
+            if (currentEntries == null) return;
 
-            if (lastEntryListIndex >= currentEntryList.size() || !MemoryBank.INSTANCE.getKeys().contains(currentEntryKey)) {
+            if (lastEntryListIndex >= currentEntries.size() || !MemoryBank.INSTANCE.getKeys().contains(currentEntryKey)) {
                 LOGGER.debug("Done checking <{}> @ {}", currentEntryKey, level.getGameTime());
                 lastEntryCheckCompleteTick = level.getGameTime();
-                currentEntryList.clear();
+                currentEntries = null;
                 return;
             }
 
-            Map.Entry<BlockPos, Memory> currentEntry = currentEntryList.get(lastEntryListIndex++);
-            BlockPos currentPos = currentEntry.getKey();
-            Memory currentMemory = currentEntry.getValue();
+            int index = lastEntryListIndex++;
+            BlockPos currentPos = BlockPos.of(currentEntries.positions()[index]);
 
             // check if time has expired
             // exempt named from the check
-            if (!integrity.preserveNamed || currentMemory.name() == null) {
+            if (!integrity.preserveNamed || !currentEntries.named()[index]) {
                 final Long expirySeconds = integrity.memoryLifetime.seconds;
                 if (expirySeconds != null) {
                     final long secondsPastExpiry = switch (integrity.lifetimeCountMode) {
-                        case REAL_TIME -> Duration.between(currentMemory.realTimestamp(), Instant.now()).toSeconds();
-                        case WORLD_TIME -> (level.getGameTime() - currentMemory
-                                .inGameTimestamp()) / SharedConstants.TICKS_PER_SECOND;
-                        case LOADED_TIME -> (MemoryBank.INSTANCE.getMetadata().getLoadedTime() - currentMemory
-                                .loadedTimestamp()) / SharedConstants.TICKS_PER_SECOND;
+                        case REAL_TIME -> Duration.between(currentEntries.realTimestamp(index), Instant.now()).toSeconds();
+                        case WORLD_TIME -> (level.getGameTime() - currentEntries
+                                .inGameTimestamps()[index]) / SharedConstants.TICKS_PER_SECOND;
+                        case LOADED_TIME -> (MemoryBank.INSTANCE.getMetadata().getLoadedTime() - currentEntries
+                                .loadedTimestamps()[index]) / SharedConstants.TICKS_PER_SECOND;
                     } - expirySeconds;
 
-                    if (secondsPastExpiry > 0) {
+                    if (secondsPastExpiry > 0 && isUnchanged(currentEntryKey, currentPos, currentEntries, index)) {
                         MemoryBank.INSTANCE.removeMemory(currentEntryKey, currentPos);
                         LOGGER.debug("Expiry: Removing {}@{}, {} seconds out of date", currentPos, currentEntryKey, secondsPastExpiry);
                         return;
@@ -127,4 +128,16 @@ public class MemoryIntegrity {
             }
         });
     }
+
+    /**
+     * Whether the memory at a position still has the timestamps it had when the current key's entries were taken,
+     * so one updated during the sweep isn't expired based on its old timestamps.
+     */
+    private static boolean isUnchanged(ResourceLocation key, BlockPos pos, MemoryTimestamps entries, int index) {
+        var memory = MemoryBank.INSTANCE.getMemory(key, pos);
+        return memory != null
+                && memory.loadedTimestamp() == entries.loadedTimestamps()[index]
+                && memory.inGameTimestamp() == entries.inGameTimestamps()[index]
+                && memory.realTimestamp().equals(entries.realTimestamp(index));
+    }
 }
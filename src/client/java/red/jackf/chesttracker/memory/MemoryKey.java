@@ -0,0 +1,282 @@
+package red.jackf.chesttracker.memory;
+
+import it.unimi.dsi.fastutil.longs.*;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.phys.Vec3;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.util.BlockPosMapView;
+import red.jackf.chesttracker.util.SectionedBlockPosMap;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * All memories in a single key of a {@link MemoryBank}, along with lookup structures that are kept in sync with them.
+ * Positions are stored packed using {@link BlockPos#asLong()}; {@link BlockPos}-keyed views are provided for callers.
+ * <p>
+ * Keys that haven't been used for a while can be {@link #pack() packed} into a {@link PackedMemories}, dropping the
+ * lookup structures. Reads go through the packed form directly, and anything needing the lookup structures or changing
+ * the key unpacks it first.
+ */
+public class MemoryKey {
+    private static final Logger LOGGER = ChestTracker.getLogger("Memory Key");
+
+    private final Long2ObjectMap<Memory> memories = new Long2ObjectOpenHashMap<>();
+    private final Map<BlockPos, Memory> memoriesView = new BlockPosMapView<>(memories);
+
+    // copy of memories with only named ones present for faster rendering iteration
+    private final Long2ObjectMap<Memory> namedMemories = new Long2ObjectOpenHashMap<>();
+    private final Map<BlockPos, Memory> namedMemoriesView = new BlockPosMapView<>(namedMemories);
+
+    // proxy positions such as the other half of a double chest, linked both ways with positions in the above map
+    private final LinkedPositions linkedPositions = new LinkedPositions();
+
+    private final SpatialIndex spatialIndex = new SpatialIndex();
+
+    private final ItemTotals totals = new ItemTotals();
+
+    private final ItemIndex itemIndex = new ItemIndex();
+
+    // immutable copy for snapshots, reused until this key next changes
+    @Nullable
+    private Map<BlockPos, Memory> snapshot = null;
+    // immutable copy of each chunk section's memories, shared between snapshots until that section changes
+    private final Long2ObjectMap<Long2ObjectMap<Memory>> sectionSnapshots = new Long2ObjectOpenHashMap<>();
+    private final LongSet dirtySections = new LongOpenHashSet();
+
+    // bank version as of the last change to this key
+    private long version = 0;
+
+    // bank's tag pool, used when packing
+    private final StackInterner interner;
+    @Nullable
+    private PackedMemories packed = null;
+    private boolean accessed = true;
+
+    MemoryKey(StackInterner interner) {
+        this.interner = interner;
+    }
+
+    MemoryKey(StackInterner interner, Map<BlockPos, Memory> memories) {
+        this.interner = interner;
+        memories.forEach(this::put);
+        int invalidLinks = linkedPositions.validate(this.memories);
+        if (invalidLinks > 0) LOGGER.warn("Removed {} invalid linked position entries", invalidLinks);
+    }
+
+    /**
+     * Add or replace a memory at a given position. Empty, unnamed memories remove the position instead.
+     */
+    void put(BlockPos blockPos, Memory memory) {
+        unpack();
+        long pos = blockPos.asLong();
+        if (memory.isEmpty() && memory.name() == null) {
+            remove(pos);
+            return;
+        }
+
+        markChanged(pos);
+        var previous = memories.put(pos, memory);
+        if (previous != null) {
+            totals.remove(previous);
+            itemIndex.remove(pos, previous);
+            linkedPositions.unlink(pos);
+        }
+        totals.add(memory);
+        itemIndex.add(pos, memory);
+        if (memory.name() != null) namedMemories.put(pos, memory);
+        else namedMemories.remove(pos);
+        linkedPositions.link(pos, memory.otherPositions());
+        spatialIndex.add(pos);
+    }
+
+    /**
+     * Remove a memory at a given position, or the memory this position is linked to.
+     *
+     * @return Position of the removed memory, or null if there wasn't one.
+     */
+    @Nullable
+    BlockPos remove(BlockPos pos) {
+        unpack();
+        long root = linkedPositions.getRoot(pos.asLong());
+        return remove(root) ? BlockPos.of(root) : null;
+    }
+
+    private boolean remove(long pos) {
+        pos = linkedPositions.getRoot(pos);
+        var previous = memories.remove(pos);
+        if (previous != null) {
+            markChanged(pos);
+            totals.remove(previous);
+            itemIndex.remove(pos, previous);
+        }
+        namedMemories.remove(pos);
+        spatialIndex.remove(pos);
+        linkedPositions.unlink(pos);
+        return previous != null;
+    }
+
+    private void markChanged(long pos) {
+        snapshot = null;
+        dirtySections.add(SectionPos.blockToSection(pos));
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Switch this key to its compact form, dropping all lookup structures. Does nothing if already packed.
+     */
+    void pack() {
+        if (packed != null) return;
+        packed = PackedMemories.of(memories, interner);
+        // packed form is already immutable, so let go of the old copy
+        snapshot = packed.asMap();
+        sectionSnapshots.clear();
+        dirtySections.clear();
+        memories.clear();
+        namedMemories.clear();
+        linkedPositions.clear();
+        spatialIndex.clear();
+        totals.clear();
+        itemIndex.clear();
+    }
+
+    /**
+     * Packs this key if it hasn't been used since the last call.
+     */
+    void packIfIdle() {
+        if (accessed) accessed = false;
+        else pack();
+    }
+
+    /**
+     * Rebuild the full memory map and lookup structures from the compact form, if this key is packed.
+     */
+    private void unpack() {
+        accessed = true;
+        if (packed == null) return;
+        var toLoad = packed;
+        packed = null;
+        for (int i = 0; i < toLoad.size(); i++)
+            put(BlockPos.of(toLoad.position(i)), toLoad.materialise(i));
+        toLoad.release(interner);
+    }
+
+    /**
+     * Release any pooled tags held by this key, when it's removed from the bank.
+     */
+    void release() {
+        if (packed != null) packed.release(interner);
+    }
+
+    public boolean isPacked() {
+        return packed != null;
+    }
+
+    public boolean isEmpty() {
+        return packed != null ? packed.size() == 0 : memories.isEmpty();
+    }
+
+    /**
+     * @return Memory at a packed position, or null if none present.
+     */
+    @Nullable
+    public Memory get(long pos) {
+        return packed != null ? packed.get(pos) : memories.get(pos);
+    }
+
+    /**
+     * @return Read-only view of all memories in this key. If packed, memories are created as they are read.
+     */
+    public Map<BlockPos, Memory> getMemories() {
+        return packed != null ? packed.asMap() : memoriesView;
+    }
+
+    /**
+     * @return Immutable copy of all memories in this key. The same map is returned until this key is changed, and only
+     * chunk sections changed since the last copy are copied again.
+     */
+    Map<BlockPos, Memory> getSnapshot() {
+        if (snapshot != null) return snapshot;
+        var iter = dirtySections.iterator();
+        while (iter.hasNext()) {
+            long section = iter.nextLong();
+            var positions = spatialIndex.getSection(section);
+            if (positions == null) {
+                sectionSnapshots.remove(section);
+                continue;
+            }
+            var copy = new Long2ObjectOpenHashMap<Memory>(positions.size());
+            var posIter = positions.iterator();
+            while (posIter.hasNext()) {
+                long pos = posIter.nextLong();
+                copy.put(pos, memories.get(pos));
+            }
+            sectionSnapshots.put(section, Long2ObjectMaps.unmodifiable(copy));
+        }
+        dirtySections.clear();
+        snapshot = new SectionedBlockPosMap<>(new Long2ObjectOpenHashMap<>(sectionSnapshots));
+        return snapshot;
+    }
+
+    /**
+     * @return Positions, timestamps and named flags of every memory in this key, without unpacking.
+     */
+    public MemoryTimestamps getTimestamps() {
+        return packed != null ? packed.timestamps() : MemoryTimestamps.of(memories);
+    }
+
+    public Map<BlockPos, Memory> getNamedMemories() {
+        unpack();
+        return namedMemoriesView;
+    }
+
+    public ItemTotals getTotals() {
+        unpack();
+        return totals;
+    }
+
+    public ItemIndex getItemIndex() {
+        unpack();
+        return itemIndex;
+    }
+
+    /**
+     * Whether every memory in this key is within <code>range</code> blocks of an origin.
+     *
+     * @param inclusive Whether a memory exactly <code>range</code> blocks away is in range
+     */
+    public boolean isAllWithinRange(Vec3 origin, double range, boolean inclusive) {
+        unpack();
+        return spatialIndex.isAllWithinRange(origin, range, inclusive);
+    }
+
+    /**
+     * Returns roughly how many memories {@link #forEachWithinRange(Vec3, double, boolean, BiConsumer)} would look at,
+     * without checking any of them.
+     */
+    public int countCandidatesWithinRange(Vec3 origin, double range, boolean inclusive) {
+        unpack();
+        return spatialIndex.countCandidatesWithinRange(origin, range, inclusive);
+    }
+
+    /**
+     * Runs a consumer on every memory in this key within <code>range</code> blocks of an origin. Only chunk sections
+     * overlapping the range are checked.
+     *
+     * @param inclusive Whether a memory exactly <code>range</code> blocks away is in range
+     */
+    public void forEachWithinRange(Vec3 origin, double range, boolean inclusive, BiConsumer<BlockPos, Memory> consumer) {
+        unpack();
+        spatialIndex.forEachWithinRange(origin, range, inclusive, pos -> consumer.accept(BlockPos.of(pos), memories.get(pos)));
+    }
+}
@@ -0,0 +1,91 @@
+package red.jackf.chesttracker.memory;
+
+import com.mojang.serialization.Dynamic;
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.util.ExtraCodecs;
+import red.jackf.chesttracker.util.ModCodecs;
+
+import java.time.Instant;
+import java.util.Collections;
+
+/**
+ * Columns of just the positions, timestamps and named flags for every memory in a key; all that integrity sweeps need
+ * to look at. Positions are packed using {@link net.minecraft.core.BlockPos#asLong()}.
+ */
+public record MemoryTimestamps(
+        long[] positions,
+        boolean[] named,
+        long[] loadedTimestamps,
+        long[] inGameTimestamps,
+        long[] realTimestampSeconds,
+        int[] realTimestampNanos) {
+
+    public static MemoryTimestamps of(Long2ObjectMap<Memory> memories) {
+        int size = memories.size();
+        var timestamps = new MemoryTimestamps(new long[size], new boolean[size], new long[size], new long[size], new long[size], new int[size]);
+        int index = 0;
+        for (Long2ObjectMap.Entry<Memory> entry : Long2ObjectMaps.fastIterable(memories))
+            timestamps.set(index++, entry.getLongKey(), entry.getValue());
+        return timestamps;
+    }
+
+    /**
+     * Reads columns for a key still in its serialized form, as decoded by {@link MemoryBank#RAW_MEMORIES_CODEC},
+     * without decoding any items. Entries with invalid positions are skipped, and missing timestamps are read as
+     * unknown, as when decoding memories fully.
+     */
+    public static MemoryTimestamps fromRaw(Dynamic<?> raw) {
+        var entries = raw.getMapValues().result().orElse(Collections.emptyMap());
+        var positions = new LongArrayList(entries.size());
+        var named = new BooleanArrayList(entries.size());
+        var loaded = new LongArrayList(entries.size());
+        var inGame = new LongArrayList(entries.size());
+        var realSeconds = new LongArrayList(entries.size());
+        var realNanos = new IntArrayList(entries.size());
+
+        for (var entry : entries.entrySet()) {
+            var pos = ModCodecs.BLOCK_POS_STRING.parse(entry.getKey()).result();
+            if (pos.isEmpty()) continue;
+            var memory = entry.getValue();
+            var real = memory.get("realTimestamp").result()
+                    .flatMap(timestamp -> ExtraCodecs.INSTANT_ISO8601.parse(timestamp).result())
+                    .orElse(MemoryIntegrity.UNKNOWN_REAL_TIMESTAMP);
+
+            positions.add(pos.get().asLong());
+            named.add(memory.get("name").result().isPresent());
+            loaded.add(memory.get("loadedTimestamp").asLong(MemoryIntegrity.UNKNOWN_LOADED_TIMESTAMP));
+            inGame.add(memory.get("worldTimestamp").asLong(MemoryIntegrity.UNKNOWN_WORLD_TIMESTAMP));
+            realSeconds.add(real.getEpochSecond());
+            realNanos.add(real.getNano());
+        }
+
+        return new MemoryTimestamps(
+                positions.toLongArray(),
+                named.toBooleanArray(),
+                loaded.toLongArray(),
+                inGame.toLongArray(),
+                realSeconds.toLongArray(),
+                realNanos.toIntArray());
+    }
+
+    void set(int index, long pos, Memory memory) {
+        positions[index] = pos;
+        named[index] = memory.name() != null;
+        loadedTimestamps[index] = memory.loadedTimestamp();
+        inGameTimestamps[index] = memory.inGameTimestamp();
+        realTimestampSeconds[index] = memory.realTimestamp().getEpochSecond();
+        realTimestampNanos[index] = memory.realTimestamp().getNano();
+    }
+
+    public int size() {
+        return positions.length;
+    }
+
+    public Instant realTimestamp(int index) {
+        return Instant.ofEpochSecond(realTimestampSeconds[index], realTimestampNanos[index]);
+    }
+}
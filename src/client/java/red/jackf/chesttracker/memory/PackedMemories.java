@@ -0,0 +1,213 @@
+package red.jackf.chesttracker.memory;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.network.chat.Component;
+import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Compact, read-only columnar form of a memory key. Timestamps and positions are kept in primitive arrays, containers
+ * as registry IDs, and items in a single slab of (item ID, tag index, count) triples. Tags are shared with the rest of
+ * the bank through a {@link StackInterner}. {@link Memory} objects are only created when asked for, with their own
+ * copies of any tags.
+ * <p>
+ * Registry IDs are only stable for the current session, so this is never written to disk.
+ */
+public class PackedMemories {
+    private static final int NO_CONTAINER = -1;
+    private static final int NO_TAG = -1;
+
+    private final Long2IntMap indexes;
+    private final MemoryTimestamps timestamps;
+    private final Component[] names;
+    private final int[] containers;
+    private final int[] otherPositionStarts;
+    private final long[] otherPositions;
+    private final int[] itemStarts;
+    private final int[] items;
+    private final CompoundTag[] tags;
+
+    private PackedMemories(Long2ObjectMap<Memory> memories, StackInterner interner) {
+        int size = memories.size();
+        this.indexes = new Long2IntOpenHashMap(size);
+        this.timestamps = new MemoryTimestamps(new long[size], new boolean[size], new long[size], new long[size], new long[size], new int[size]);
+        this.names = new Component[size];
+        this.containers = new int[size];
+        this.otherPositionStarts = new int[size + 1];
+        this.itemStarts = new int[size + 1];
+
+        int otherCount = 0;
+        int itemCount = 0;
+        for (Memory memory : memories.values()) {
+            otherCount += memory.otherPositions().size();
+            itemCount += memory.items().size();
+        }
+        this.otherPositions = new long[otherCount];
+        this.items = new int[itemCount * 3];
+
+        Reference2IntMap<CompoundTag> tagIndexes = new Reference2IntOpenHashMap<>();
+        tagIndexes.defaultReturnValue(NO_TAG);
+        List<CompoundTag> tagList = new ArrayList<>();
+
+        int index = 0;
+        int otherIndex = 0;
+        int itemIndex = 0;
+        for (Long2ObjectMap.Entry<Memory> entry : Long2ObjectMaps.fastIterable(memories)) {
+            long pos = entry.getLongKey();
+            Memory memory = entry.getValue();
+
+            indexes.put(pos, index);
+            timestamps.set(index, pos, memory);
+            names[index] = memory.name();
+            containers[index] = memory.container().map(BuiltInRegistries.BLOCK::getId).orElse(NO_CONTAINER);
+
+            otherPositionStarts[index] = otherIndex;
+            for (BlockPos other : memory.otherPositions())
+                otherPositions[otherIndex++] = other.asLong();
+
+            itemStarts[index] = itemIndex;
+            for (ItemStack stack : memory.items()) {
+                int tag = NO_TAG;
+                if (stack.getTag() != null) {
+                    // pooled tags are shared by equal stacks, so identity is enough to share them here
+                    var pooled = interner.intern(new LightweightStack(stack)).tag();
+                    tag = tagIndexes.getInt(pooled);
+                    if (tag == NO_TAG) {
+                        tag = tagList.size();
+                        tagList.add(pooled);
+                        tagIndexes.put(pooled, tag);
+                    }
+                }
+                items[itemIndex++] = BuiltInRegistries.ITEM.getId(stack.getItem());
+                items[itemIndex++] = tag;
+                items[itemIndex++] = stack.getCount();
+            }
+
+            index++;
+        }
+        otherPositionStarts[size] = otherIndex;
+        itemStarts[size] = itemIndex;
+        this.tags = tagList.toArray(CompoundTag[]::new);
+    }
+
+    /**
+     * Release this key's uses of pooled tags, once it's been unpacked or removed.
+     */
+    public void release(StackInterner interner) {
+        for (int i = 0; i < items.length; i += 3)
+            if (items[i + 1] != NO_TAG) interner.release(new LightweightStack(BuiltInRegistries.ITEM.byId(items[i]), tags[items[i + 1]]));
+    }
+
+    public static PackedMemories of(Long2ObjectMap<Memory> memories, StackInterner interner) {
+        return new PackedMemories(memories, interner);
+    }
+
+    public int size() {
+        return timestamps.size();
+    }
+
+    public long position(int index) {
+        return timestamps.positions()[index];
+    }
+
+    public MemoryTimestamps timestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return Memory at a packed position, or null if none present.
+     */
+    @Nullable
+    public Memory get(long pos) {
+        if (!indexes.containsKey(pos)) return null;
+        return materialise(indexes.get(pos));
+    }
+
+    /**
+     * Creates a full memory object for the entry at a given index.
+     */
+    public Memory materialise(int index) {
+        var memoryItems = new ArrayList<ItemStack>((itemStarts[index + 1] - itemStarts[index]) / 3);
+        for (int i = itemStarts[index]; i < itemStarts[index + 1]; i += 3) {
+            var stack = new ItemStack(BuiltInRegistries.ITEM.byId(items[i]), items[i + 2]);
+            if (items[i + 1] != NO_TAG) stack.setTag(StackInterner.copyTag(tags[items[i + 1]]));
+            memoryItems.add(stack);
+        }
+
+        var others = new ArrayList<BlockPos>(otherPositionStarts[index + 1] - otherPositionStarts[index]);
+        for (int i = otherPositionStarts[index]; i < otherPositionStarts[index + 1]; i++)
+            others.add(BlockPos.of(otherPositions[i]));
+
+        return new Memory(
+                memoryItems,
+                names[index],
+                others,
+                containers[index] == NO_CONTAINER ? Optional.empty() : Optional.of(BuiltInRegistries.BLOCK.byId(containers[index])),
+                timestamps.loadedTimestamps()[index],
+                timestamps.inGameTimestamps()[index],
+                timestamps.realTimestamp(index));
+    }
+
+    /**
+     * @return Read-only map view that creates memories as they are looked up or iterated.
+     */
+    public Map<BlockPos, Memory> asMap() {
+        return new AbstractMap<>() {
+            @Override
+            public int size() {
+                return PackedMemories.this.size();
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof BlockPos pos && indexes.containsKey(pos.asLong());
+            }
+
+            @Override
+            public Memory get(Object key) {
+                return key instanceof BlockPos pos ? PackedMemories.this.get(pos.asLong()) : null;
+            }
+
+            @Override
+            public @NotNull Set<Entry<BlockPos, Memory>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public int size() {
+                        return PackedMemories.this.size();
+                    }
+
+                    @Override
+                    public @NotNull Iterator<Entry<BlockPos, Memory>> iterator() {
+                        return new Iterator<>() {
+                            private int index = 0;
+
+                            @Override
+                            public boolean hasNext() {
+                                return index < PackedMemories.this.size();
+                            }
+
+                            @Override
+                            public Entry<BlockPos, Memory> next() {
+                                if (!hasNext()) throw new NoSuchElementException();
+                                var entry = new SimpleImmutableEntry<>(BlockPos.of(position(index)), materialise(index));
+                                index++;
+                                return entry;
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+}
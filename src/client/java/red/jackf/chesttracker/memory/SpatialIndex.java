@@ -0,0 +1,143 @@
+package red.jackf.chesttracker.memory;
+
+import it.unimi.dsi.fastutil.longs.*;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Buckets positions by chunk section, so range-limited lookups only need to look at sections that overlap the search
+ * sphere instead of every position in a key. Positions are packed using {@link BlockPos#asLong()}.
+ * <p>
+ * Range checks take whether a block center exactly <code>range</code> blocks away counts as in range, as item counts
+ * and searches have always differed on this.
+ */
+public class SpatialIndex {
+    private final Long2ObjectMap<LongSet> sections = new Long2ObjectOpenHashMap<>();
+
+    public void add(long pos) {
+        sections.computeIfAbsent(SectionPos.blockToSection(pos), l -> new LongOpenHashSet()).add(pos);
+    }
+
+    public void remove(long pos) {
+        long section = SectionPos.blockToSection(pos);
+        var bucket = sections.get(section);
+        if (bucket != null && bucket.remove(pos) && bucket.isEmpty())
+            sections.remove(section);
+    }
+
+    public void clear() {
+        sections.clear();
+    }
+
+    /**
+     * Returns every position in a chunk section, or null if there are none.
+     *
+     * @param section Packed section position, from {@link SectionPos#blockToSection(long)}
+     */
+    LongSet getSection(long section) {
+        return sections.get(section);
+    }
+
+    /**
+     * Checks whether every indexed position has its block center within <code>range</code> blocks of the origin.
+     *
+     * @param inclusive Whether a block center exactly <code>range</code> blocks away is in range
+     */
+    public boolean isAllWithinRange(Vec3 origin, double range, boolean inclusive) {
+        final double rangeSquared = range * range;
+        var iter = sections.keySet().iterator();
+        while (iter.hasNext()) {
+            long section = iter.nextLong();
+            double minX = SectionPos.sectionToBlockCoord(SectionPos.x(section)) + 0.5;
+            double minY = SectionPos.sectionToBlockCoord(SectionPos.y(section)) + 0.5;
+            double minZ = SectionPos.sectionToBlockCoord(SectionPos.z(section)) + 0.5;
+            if (!inRange(farthestSquared(origin, minX, minY, minZ), rangeSquared, inclusive)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs a consumer on every position whose block center is within <code>range</code> blocks of the origin.
+     * Sections entirely outside the range are skipped without checking their contents.
+     *
+     * @param origin    Center of the search sphere
+     * @param range     Radius of the search sphere in blocks
+     * @param inclusive Whether a block center exactly <code>range</code> blocks away is in range
+     * @param consumer  Consumer to run on every position in range
+     */
+    public void forEachWithinRange(Vec3 origin, double range, boolean inclusive, LongConsumer consumer) {
+        final double rangeSquared = range * range;
+        for (Long2ObjectMap.Entry<LongSet> entry : Long2ObjectMaps.fastIterable(sections)) {
+            long section = entry.getLongKey();
+            // bounds of the block centers in this section
+            double minX = SectionPos.sectionToBlockCoord(SectionPos.x(section)) + 0.5;
+            double minY = SectionPos.sectionToBlockCoord(SectionPos.y(section)) + 0.5;
+            double minZ = SectionPos.sectionToBlockCoord(SectionPos.z(section)) + 0.5;
+
+            if (!inRange(nearestSquared(origin, minX, minY, minZ), rangeSquared, inclusive)) continue;
+
+            var iter = entry.getValue().iterator();
+            if (inRange(farthestSquared(origin, minX, minY, minZ), rangeSquared, inclusive)) {
+                // whole section is in range
+                while (iter.hasNext()) consumer.accept(iter.nextLong());
+            } else {
+                while (iter.hasNext()) {
+                    long pos = iter.nextLong();
+                    if (inRange(distToCenterSqr(pos, origin), rangeSquared, inclusive))
+                        consumer.accept(pos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns how many positions {@link #forEachWithinRange(Vec3, double, boolean, LongConsumer)} would look at for the
+     * same arguments, by counting positions in every section overlapping the range. Doesn't check individual positions.
+     */
+    public int countCandidatesWithinRange(Vec3 origin, double range, boolean inclusive) {
+        final double rangeSquared = range * range;
+        int count = 0;
+        for (Long2ObjectMap.Entry<LongSet> entry : Long2ObjectMaps.fastIterable(sections)) {
+            long section = entry.getLongKey();
+            double minX = SectionPos.sectionToBlockCoord(SectionPos.x(section)) + 0.5;
+            double minY = SectionPos.sectionToBlockCoord(SectionPos.y(section)) + 0.5;
+            double minZ = SectionPos.sectionToBlockCoord(SectionPos.z(section)) + 0.5;
+            if (inRange(nearestSquared(origin, minX, minY, minZ), rangeSquared, inclusive)) count += entry.getValue().size();
+        }
+        return count;
+    }
+
+    private static boolean inRange(double distanceSquared, double rangeSquared, boolean inclusive) {
+        return inclusive ? distanceSquared <= rangeSquared : distanceSquared < rangeSquared;
+    }
+
+    private static double distToCenterSqr(long pos, Vec3 origin) {
+        double dx = BlockPos.getX(pos) + 0.5 - origin.x;
+        double dy = BlockPos.getY(pos) + 0.5 - origin.y;
+        double dz = BlockPos.getZ(pos) + 0.5 - origin.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double nearestSquared(Vec3 origin, double minX, double minY, double minZ) {
+        double dx = axisDistance(origin.x, minX);
+        double dy = axisDistance(origin.y, minY);
+        double dz = axisDistance(origin.z, minZ);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double axisDistance(double point, double min) {
+        if (point < min) return min - point;
+        if (point > min + SectionPos.SECTION_MAX_INDEX) return point - (min + SectionPos.SECTION_MAX_INDEX);
+        return 0;
+    }
+
+    private static double farthestSquared(Vec3 origin, double minX, double minY, double minZ) {
+        double dx = Math.max(Math.abs(origin.x - minX), Math.abs(origin.x - (minX + SectionPos.SECTION_MAX_INDEX)));
+        double dy = Math.max(Math.abs(origin.y - minY), Math.abs(origin.y - (minY + SectionPos.SECTION_MAX_INDEX)));
+        double dz = Math.max(Math.abs(origin.z - minZ), Math.abs(origin.z - (minZ + SectionPos.SECTION_MAX_INDEX)));
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
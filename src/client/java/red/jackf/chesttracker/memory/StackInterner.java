@@ -0,0 +1,108 @@
+package red.jackf.chesttracker.memory;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bank-wide pool of item payloads, so identical stacks across many packed memories (enchanted books, filled shulker
+ * boxes) share one {@link CompoundTag} instance instead of each holding their own copy. Each pooled stack counts its
+ * uses, and is dropped once every packed key using it has been unpacked or removed, so the pool and its statistics only
+ * cover keys that are currently packed. Safe to use from multiple threads.
+ * <p>
+ * Pooled tags are also the pool's keys, so they must never change. The pool keeps its own copy of every tag it's
+ * given, and pooled tags must be copied before being put in an {@link ItemStack}, which can change its tag.
+ */
+public class StackInterner {
+    private final Map<LightweightStack, Pooled> stacks = new ConcurrentHashMap<>();
+    private final AtomicLong uses = new AtomicLong();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    /**
+     * Returns the pooled instance equal to a given stack, adding a copy of it to the pool if not present, and counts a
+     * use of it. Each call should be matched by a call to {@link #release(LightweightStack)} once the returned stack is
+     * no longer used. The returned stack's tag is shared and must not be modified or given to an {@link ItemStack};
+     * see {@link #copyTag(CompoundTag)}.
+     */
+    public LightweightStack intern(LightweightStack stack) {
+        uses.incrementAndGet();
+        return stacks.compute(stack, (key, pooled) -> {
+            if (pooled == null) {
+                var owned = new Pooled(new LightweightStack(key.item(), copyTag(key.tag())));
+                retainedBytes.addAndGet(owned.bytes);
+                return owned;
+            }
+            pooled.uses++;
+            savedBytes.addAndGet(pooled.bytes);
+            return pooled;
+        }).stack;
+    }
+
+    /**
+     * Stop counting a use of a pooled stack, dropping it from the pool if it has no uses left.
+     */
+    public void release(LightweightStack stack) {
+        stacks.computeIfPresent(stack, (key, pooled) -> {
+            uses.decrementAndGet();
+            if (--pooled.uses > 0) {
+                savedBytes.addAndGet(-pooled.bytes);
+                return pooled;
+            }
+            retainedBytes.addAndGet(-pooled.bytes);
+            return null;
+        });
+    }
+
+    /**
+     * Returns a copy of a tag safe to hand out, or null if given null.
+     */
+    @Nullable
+    public static CompoundTag copyTag(@Nullable CompoundTag tag) {
+        return tag == null ? null : tag.copy();
+    }
+
+    /**
+     * @return Number of distinct stacks in the pool.
+     */
+    public int size() {
+        return stacks.size();
+    }
+
+    /**
+     * @return Number of uses of pooled stacks, divided by the number of distinct stacks.
+     */
+    public double getDeduplicationRatio() {
+        return stacks.isEmpty() ? 1 : (double) uses.get() / stacks.size();
+    }
+
+    /**
+     * @return Approximate size in bytes of the NBT held by the pool.
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * @return Approximate size in bytes of duplicate NBT currently replaced by pooled instances.
+     */
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    private static class Pooled {
+        private final LightweightStack stack;
+        private final int bytes;
+        // only changed inside the pool's compute calls, so never concurrently
+        private int uses = 1;
+
+        private Pooled(LightweightStack stack) {
+            this.stack = stack;
+            this.bytes = stack.tag() == null ? 0 : stack.tag().sizeInBytes();
+        }
+    }
+}
@@ -2,36 +2,77 @@ package red.jackf.chesttracker.rendering;
 
 import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
 import net.minecraft.core.BlockPos;
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
 import red.jackf.chesttracker.config.ChestTrackerConfig;
+import red.jackf.chesttracker.memory.Memory;
 import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.memory.MemoryChangeJournal;
 import red.jackf.chesttracker.provider.ProviderHandler;
 import red.jackf.whereisit.client.api.RenderUtils;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class NameRenderer {
+    // label positions for the current key, kept up to date from the bank's change journal
+    private static final Map<BlockPos, Label> labels = new HashMap<>();
+    @Nullable
+    private static MemoryBank labelsBank = null;
+    @Nullable
+    private static ResourceLocation labelsKey = null;
+    private static long labelsVersion = -1;
 
     public static void setup() {
         WorldRenderEvents.BEFORE_BLOCK_OUTLINE.register((context, hitResult) -> {
-            if (MemoryBank.INSTANCE == null) return true;
+            if (MemoryBank.INSTANCE == null) {
+                labels.clear();
+                labelsBank = null;
+                return true;
+            }
             var currentKey = ProviderHandler.getCurrentKey();
             if (currentKey == null) return true;
-            var named = MemoryBank.INSTANCE.getNamedMemories(currentKey);
-            if (named == null) return true;
+            updateLabels(MemoryBank.INSTANCE, currentKey);
             final int maxRangeSq = ChestTrackerConfig.INSTANCE.instance().rendering.nameRange * ChestTrackerConfig.INSTANCE.instance().rendering.nameRange;
             var alreadyRendering = RenderUtils.getCurrentlyRenderedWithNames();
-            for (var entry : named.entrySet()) {
+            for (var entry : labels.entrySet()) {
                 if (alreadyRendering.contains(entry.getKey())) continue;
-                if (entry.getKey().distToCenterSqr(context.camera().getPosition()) < maxRangeSq) {
-                    var pos = getRenderPos(entry.getKey(), entry.getValue().otherPositions());
-                    RenderUtils.scheduleLabelRender(pos, entry.getValue().name());
-                }
+                if (entry.getKey().distToCenterSqr(context.camera().getPosition()) < maxRangeSq)
+                    RenderUtils.scheduleLabelRender(entry.getValue().pos(), entry.getValue().name());
             }
             return true;
         });
     }
 
+    private static void updateLabels(MemoryBank bank, ResourceLocation key) {
+        if (bank == labelsBank && key.equals(labelsKey) && bank.getVersion() == labelsVersion) return;
+
+        var named = bank.getNamedMemories(key);
+        var changes = bank == labelsBank && key.equals(labelsKey) ? bank.getJournal().since(labelsVersion) : null;
+        if (changes == null) {
+            labels.clear();
+            if (named != null) named.forEach((pos, memory) -> labels.put(pos, Label.of(pos, memory)));
+        } else {
+            for (MemoryChangeJournal.Change change : changes) {
+                if (!change.key().equals(key)) continue;
+                if (change.pos() == null) {
+                    labels.clear();
+                    continue;
+                }
+                var memory = named == null ? null : named.get(change.pos());
+                if (memory == null) labels.remove(change.pos());
+                else labels.put(change.pos(), Label.of(change.pos(), memory));
+            }
+        }
+
+        labelsBank = bank;
+        labelsKey = key;
+        labelsVersion = bank.getVersion();
+    }
+
     private static Vec3 getRenderPos(BlockPos pos, List<BlockPos> otherPos) {
         var renderPos = pos.getCenter();
         for (BlockPos other : otherPos) {
@@ -39,4 +80,10 @@ public class NameRenderer {
         }
         return renderPos.scale(1.0 / (1 + otherPos.size())).add(0, 1, 0);
     }
+
+    private record Label(Vec3 pos, Component name) {
+        private static Label of(BlockPos pos, Memory memory) {
+            return new Label(getRenderPos(pos, memory.otherPositions()), memory.name());
+        }
+    }
 }
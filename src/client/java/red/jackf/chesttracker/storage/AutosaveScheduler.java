@@ -0,0 +1,53 @@
+package red.jackf.chesttracker.storage;
+
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
+import net.minecraft.Util;
+import red.jackf.chesttracker.config.ChestTrackerConfig;
+import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.memory.MemoryChangeListener;
+
+/**
+ * Saves the current memory bank in the background while playing. Changes are left to settle for {@link #QUIET_MILLIS}
+ * first, so a burst of them (such as sorting through a storage room) is written in one save. Saves are at least
+ * {@link ChestTrackerConfig.Storage#autosaveInterval} seconds apart, and changes are saved after at most
+ * {@link ChestTrackerConfig.Storage#autosaveMaxStaleness} seconds even if they never settle.
+ */
+public class AutosaveScheduler {
+    private static final long QUIET_MILLIS = 5000;
+
+    // time of the first and latest changes since the current bank was last saved, or -1 if none
+    private static long firstChangeMillis = -1;
+    private static long lastChangeMillis = -1;
+
+    static void setup() {
+        MemoryChangeListener.EVENT.register((bank, change) -> {
+            if (bank != MemoryBank.INSTANCE) return;
+            long now = Util.getMillis();
+            if (firstChangeMillis == -1) firstChangeMillis = now;
+            lastChangeMillis = now;
+        });
+
+        ClientTickEvents.END_CLIENT_TICK.register(client -> tick());
+    }
+
+    private static void tick() {
+        var bank = MemoryBank.INSTANCE;
+        if (bank == null || !bank.hasUnsavedMemories()) {
+            firstChangeMillis = -1;
+            lastChangeMillis = -1;
+            return;
+        }
+
+        long now = Util.getMillis();
+        // unsaved without a change event, such as after a failed save
+        if (firstChangeMillis == -1) firstChangeMillis = lastChangeMillis = now;
+
+        var config = ChestTrackerConfig.INSTANCE.instance().storage;
+        if (config.autosaveInterval <= 0 || Storage.isSaving()) return;
+        if (now - Storage.getLastSaveMillis() < config.autosaveInterval * 1000L) return;
+
+        boolean settled = now - lastChangeMillis >= QUIET_MILLIS;
+        boolean stale = now - firstChangeMillis >= config.autosaveMaxStaleness * 1000L;
+        if (settled || stale) MemoryBank.saveAsync();
+    }
+}
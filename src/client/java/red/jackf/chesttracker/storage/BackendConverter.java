@@ -0,0 +1,182 @@
+package red.jackf.chesttracker.storage;
+
+import com.mojang.serialization.JsonOps;
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.components.toasts.SystemToast;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.network.chat.Component;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.config.ChestTrackerConfig;
+import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.memory.metadata.Metadata;
+import red.jackf.chesttracker.storage.backend.Backend;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.minecraft.network.chat.Component.translatable;
+
+/**
+ * Copies every memory bank from one backend to another. Banks are converted in parallel, with only as many loaded at
+ * once as there are worker threads. Each converted bank is loaded back from the target backend and compared against
+ * the original; banks that don't match are reported as failed. Banks are left in the source backend.
+ */
+public class BackendConverter {
+    private static final Logger LOGGER = ChestTracker.getLogger("Converter");
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    // source backend picked in the config screen; not saved
+    public static Backend.Type source = Backend.Type.JSON;
+
+    private static boolean running = false;
+
+    public static boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Convert every memory bank in one backend to another in the background, showing progress in a toast. Call on
+     * the render thread. Does nothing if a conversion is already running or both backends are the same.
+     */
+    public static void start(Backend.Type from, Backend.Type to) {
+        if (running || from == to) return;
+        running = true;
+
+        // make sure the current bank is on disk in its latest state
+        MemoryBank.save();
+        Storage.flush();
+
+        var ids = new ArrayList<>(from.instance.getAllIds());
+        // the loaded bank would overwrite the converted copy when next saved
+        boolean toCurrent = to == ChestTrackerConfig.INSTANCE.instance().storage.storageBackend;
+        if (toCurrent && MemoryBank.INSTANCE != null && ids.remove(MemoryBank.INSTANCE.getId()))
+            LOGGER.info("Skipping {}, as it's currently loaded", MemoryBank.INSTANCE.getId());
+        var progress = new Progress(ids.size());
+        LOGGER.info("Converting {} memory banks from {} to {}", ids.size(), from, to);
+        showToast(from, to, progress);
+
+        var executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            var thread = new Thread(runnable, "Chest Tracker Converter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var futures = ids.stream()
+                .map(id -> CompletableFuture.runAsync(() -> {
+                    if (convert(id, from, to.instance, progress)) progress.converted.incrementAndGet();
+                    else progress.failed.incrementAndGet();
+                }, executor).exceptionally(ex -> {
+                    LOGGER.error("Error converting {}", id, ex);
+                    progress.failed.incrementAndGet();
+                    return null;
+                }).thenRunAsync(() -> showToast(from, to, progress), Minecraft.getInstance()))
+                .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(futures).whenCompleteAsync((unused, ex) -> {
+            executor.shutdown();
+            running = false;
+            if (toCurrent) Storage.clearCache();
+            LOGGER.info("Converted {} of {} memory banks in {}s ({} failed), {} memories/s",
+                    progress.converted.get(), progress.total, "%.1f".formatted(progress.getSeconds()),
+                    progress.failed.get(), "%.0f".formatted(progress.getMemoriesPerSecond()));
+            showToast(from, to, progress);
+        }, Minecraft.getInstance());
+    }
+
+    /**
+     * Convert and verify a single bank. Runs on a worker thread.
+     */
+    private static boolean convert(String id, Backend.Type from, Backend to, Progress progress) {
+        var bank = from == Backend.Type.MEMORY ? copyFromGameMemory(id) : from.instance.load(id);
+        if (bank == null) {
+            LOGGER.warn("Couldn't load {} from {}", id, from);
+            return false;
+        }
+        bank.setId(id);
+        var snapshot = bank.takeSnapshot();
+
+        if (!to.save(bank)) {
+            LOGGER.error("Couldn't save {} to {}", id, to.getClass().getSimpleName());
+            return false;
+        }
+        to.onSaved(snapshot);
+
+        var converted = to.load(id);
+        if (converted == null) {
+            LOGGER.error("Couldn't load {} back from {}", id, to.getClass().getSimpleName());
+            return false;
+        }
+        if (!Objects.equals(encodeMemories(bank), encodeMemories(converted))
+                || !Objects.equals(encodeMetadata(bank.getMetadata()), encodeMetadata(converted.getMetadata()))) {
+            LOGGER.error("{} doesn't match after converting", id);
+            return false;
+        }
+
+        progress.memories.addAndGet(snapshot.getMemoryCount());
+        return true;
+    }
+
+    /**
+     * Banks in game memory may be in use, so copy them on the render thread instead of using them directly.
+     */
+    @Nullable
+    private static MemoryBank copyFromGameMemory(String id) {
+        return CompletableFuture.supplyAsync(() -> {
+            var bank = Backend.Type.MEMORY.instance.load(id);
+            if (bank == null) return null;
+            return new MemoryBank(bank.getMetadata().deepCopy(), bank.takeSnapshot().getAllMemories());
+        }, Minecraft.getInstance()).join();
+    }
+
+    private static Object encodeMemories(MemoryBank bank) {
+        return MemoryBank.MEMORIES_CODEC.encodeStart(NbtOps.INSTANCE, bank.getMemories())
+                .resultOrPartial(Util.prefix("Error encoding memories for comparison: ", LOGGER::error))
+                .orElse(null);
+    }
+
+    private static Object encodeMetadata(Metadata metadata) {
+        return Metadata.CODEC.encodeStart(JsonOps.INSTANCE, metadata)
+                .resultOrPartial(Util.prefix("Error encoding metadata for comparison: ", LOGGER::error))
+                .orElse(null);
+    }
+
+    private static void showToast(Backend.Type from, Backend.Type to, Progress progress) {
+        int done = progress.converted.get() + progress.failed.get();
+        Component message = translatable("chesttracker.config.storage.convert.progress",
+                done,
+                progress.total,
+                progress.failed.get(),
+                "%.0f".formatted(progress.getMemoriesPerSecond()));
+        SystemToast.addOrUpdate(Minecraft.getInstance().getToasts(),
+                SystemToast.SystemToastIds.PERIODIC_NOTIFICATION,
+                translatable("chesttracker.config.storage.convert.title", from.name(), to.name()),
+                message);
+    }
+
+    private static class Progress {
+        private final int total;
+        private final long start = System.nanoTime();
+        private final AtomicInteger converted = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicLong memories = new AtomicLong();
+
+        private Progress(int total) {
+            this.total = total;
+        }
+
+        private double getSeconds() {
+            return (System.nanoTime() - start) / 1_000_000_000.0;
+        }
+
+        private double getMemoriesPerSecond() {
+            double seconds = getSeconds();
+            return seconds == 0 ? 0 : memories.get() / seconds;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package red.jackf.chesttracker.storage;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.mojang.serialization.JsonOps;
+import net.minecraft.Util;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.config.ChestTrackerConfig;
+import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.memory.MemoryBankSnapshot;
+import red.jackf.chesttracker.memory.metadata.Metadata;
+import red.jackf.chesttracker.storage.backend.BinaryFormat;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps recently used memory banks in memory, so switching back to one doesn't need to decode it again. Banks are
+ * evicted least-recently-used first once their estimated total size passes
+ * {@link ChestTrackerConfig.Storage#bankCacheBudget}; evicted banks are written to a temporary file in
+ * {@link BinaryFormat}, which is faster to read back than the backend's own format. Banks that fail to spill are kept in
+ * memory even over budget, as the cache may hold their only copy.
+ * <p>
+ * Bookkeeping is synchronized, as banks may be loaded from a background thread. Spill files are written, read, decoded
+ * and deleted outside the lock, so a slow spill never blocks other callers.
+ */
+public class MemoryBankCache {
+    private static final Logger LOGGER = ChestTracker.getLogger("Bank Cache");
+    // rough in-memory cost of a single memory and its indexes, not counting interned NBT
+    private static final long BYTES_PER_MEMORY = 512;
+
+    private final Path spillDirectory;
+    // access ordered, so the first entry is the least recently used
+    private final LinkedHashMap<String, Cached> cached = new LinkedHashMap<>(16, 0.75f, true);
+    // evicted banks, each with its own file so a newer spill never collides with an older one still being written
+    private final Map<String, Spill> spilled = new HashMap<>();
+    private long cachedBytes = 0;
+    private long spillCount = 0;
+
+    public MemoryBankCache(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        deleteSpilled();
+    }
+
+    /**
+     * Add or replace a bank in this cache, evicting others if over budget. Call on the render thread.
+     */
+    public synchronized void put(MemoryBank bank) {
+        remove(bank.getId());
+        var entry = new Cached(bank, estimateSize(bank), false);
+        cached.put(bank.getId(), entry);
+        cachedBytes += entry.size();
+        evict();
+    }
+
+    /**
+     * Returns a cached bank, reading it back from its spill file if it was evicted, and marks it as recently used.
+     */
+    @Nullable
+    public MemoryBank get(String id) {
+        while (true) {
+            Spill spill;
+            synchronized (this) {
+                var entry = cached.get(id);
+                if (entry != null) return entry.bank();
+                spill = spilled.remove(id);
+            }
+            if (spill == null) return null;
+
+            var unwritten = spill.unwritten().join();
+            var bank = unwritten.isPresent() ? unwritten.get().bank() : readSpilled(id, spill);
+
+            synchronized (this) {
+                // cached or spilled again while reading, so ours is out of date
+                if (cached.containsKey(id) || spilled.containsKey(id)) {
+                    deleteWhenWritten(spill);
+                    continue;
+                }
+                if (bank == null) {
+                    // keep the file, as it may be the only copy; the next call tries reading it again
+                    spilled.put(id, spill);
+                    return null;
+                }
+                deleteWhenWritten(spill);
+                put(bank);
+                return bank;
+            }
+        }
+    }
+
+    public synchronized boolean contains(String id) {
+        return cached.containsKey(id) || spilled.containsKey(id);
+    }
+
+    public synchronized Set<String> getIds() {
+        var ids = new HashSet<>(cached.keySet());
+        ids.addAll(spilled.keySet());
+        return ids;
+    }
+
+    public synchronized void remove(String id) {
+        var entry = cached.remove(id);
+        if (entry != null) cachedBytes -= entry.size();
+        var spill = spilled.remove(id);
+        if (spill != null) deleteWhenWritten(spill);
+    }
+
+    public synchronized void clear() {
+        cached.clear();
+        cachedBytes = 0;
+        spilled.values().forEach(this::deleteWhenWritten);
+        spilled.clear();
+    }
+
+    private static long estimateSize(MemoryBank bank) {
+        return bank.getSnapshot().getMemoryCount() * BYTES_PER_MEMORY + bank.getInterner().getRetainedBytes();
+    }
+
+    private void evict() {
+        long budget = ChestTrackerConfig.INSTANCE.instance().storage.bankCacheBudget * 1024L * 1024L;
+        var iter = cached.entrySet().iterator();
+        // always keep the most recent bank
+        for (int remaining = cached.size(); cachedBytes > budget && remaining > 1 && iter.hasNext(); remaining--) {
+            var entry = iter.next();
+            if (entry.getValue().pinned()) continue;
+            iter.remove();
+            cachedBytes -= entry.getValue().size();
+            spill(entry.getKey(), entry.getValue());
+        }
+    }
+
+    ///////////
+    // SPILL //
+    ///////////
+
+    private void spill(String id, Cached entry) {
+        var path = spillDirectory.resolve(id + "." + spillCount++ + ".bank");
+        var snapshot = entry.bank().getSnapshot();
+        LOGGER.debug("Spilling {} to {}", id, path);
+        var spill = new Spill(path, !entry.bank().hasUnsavedMemories(), CompletableFuture.supplyAsync(
+                () -> writeSpilled(id, path, snapshot) ? Optional.<Cached>empty() : Optional.of(entry),
+                Util.backgroundExecutor()));
+        spilled.put(id, spill);
+        spill.unwritten().thenAcceptAsync(
+                unwritten -> unwritten.ifPresent(failed -> keepInMemory(id, spill, failed)),
+                Util.backgroundExecutor());
+    }
+
+    private static boolean writeSpilled(String id, Path path, MemoryBankSnapshot snapshot) {
+        var metadata = Metadata.CODEC.encodeStart(JsonOps.INSTANCE, snapshot.metadata())
+                .resultOrPartial(Util.prefix("Error encoding metadata for " + id + ": ", LOGGER::error));
+        if (metadata.isEmpty()) return false;
+        try {
+            Files.createDirectories(path.getParent());
+            try (var output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path))))) {
+                var metadataBytes = metadata.get().toString().getBytes(StandardCharsets.UTF_8);
+                output.writeInt(metadataBytes.length);
+                output.write(metadataBytes);
+                BinaryFormat.write(output, snapshot.getAllMemories());
+            }
+            return true;
+        } catch (IOException ex) {
+            LOGGER.error("Error spilling {} to {}", id, path, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Put a bank that failed to spill back in the cache, where it's kept even if over budget, as it may be the only
+     * copy. Skipped if it was loaded or removed in the meantime.
+     */
+    private synchronized void keepInMemory(String id, Spill spill, Cached entry) {
+        if (spilled.get(id) != spill) return;
+        LOGGER.warn("Keeping {} in memory over budget, as it couldn't be spilled", id);
+        spilled.remove(id);
+        cached.put(id, new Cached(entry.bank(), entry.size(), true));
+        cachedBytes += entry.size();
+        deleteWhenWritten(spill);
+    }
+
+    /**
+     * Read a spilled bank back once it's been written. Called outside the lock.
+     */
+    @Nullable
+    private static MemoryBank readSpilled(String id, Spill spill) {
+        var path = spill.path();
+        try (var input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            var metadataBytes = new byte[input.readInt()];
+            input.readFully(metadataBytes);
+            JsonElement metadataJson = JsonParser.parseString(new String(metadataBytes, StandardCharsets.UTF_8));
+            var metadata = Metadata.CODEC.parse(JsonOps.INSTANCE, metadataJson)
+                    .resultOrPartial(Util.prefix("Error decoding spilled metadata for " + id + ": ", LOGGER::error));
+            if (metadata.isEmpty()) return null;
+            var bank = new MemoryBank(metadata.get(), BinaryFormat.read(input));
+            bank.setId(id);
+            if (spill.saved()) bank.markSaved(bank.getVersion());
+            LOGGER.debug("Read {} back from {}", id, path);
+            return bank;
+        } catch (IOException ex) {
+            LOGGER.error("Error reading spilled bank {}", path, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Delete a spill file once it's finished being written, without waiting for it.
+     */
+    private void deleteWhenWritten(Spill spill) {
+        spill.unwritten().whenCompleteAsync((unwritten, ex) -> {
+            try {
+                Files.deleteIfExists(spill.path());
+            } catch (IOException ioEx) {
+                LOGGER.error("Error deleting spilled bank {}", spill.path(), ioEx);
+            }
+        }, Util.backgroundExecutor());
+    }
+
+    private void deleteSpilled() {
+        if (!Files.isDirectory(spillDirectory)) return;
+        try {
+            FileUtils.deleteDirectory(spillDirectory.toFile());
+        } catch (IOException ex) {
+            LOGGER.error("Error clearing {}", spillDirectory, ex);
+        }
+    }
+
+    /**
+     * @param bank   Cached memory bank.
+     * @param size   Estimated size of the bank in memory, in bytes.
+     * @param pinned Whether this bank failed to spill before, so is never evicted.
+     */
+    private record Cached(MemoryBank bank, long size, boolean pinned) {}
+
+    /**
+     * @param path      File the bank is written to.
+     * @param saved     Whether the bank's memories had all been saved when it was spilled.
+     * @param unwritten Completed once writing finishes; holds the evicted entry if writing failed, so it isn't lost.
+     */
+    private record Spill(Path path, boolean saved, CompletableFuture<Optional<Cached>> unwritten) {}
+}
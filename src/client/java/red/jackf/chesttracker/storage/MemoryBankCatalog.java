@@ -0,0 +1,123 @@
+package red.jackf.chesttracker.storage;
+
+import com.mojang.serialization.Codec;
+import com.mojang.serialization.codecs.RecordCodecBuilder;
+import net.minecraft.util.ExtraCodecs;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.util.FileUtil;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of every memory bank in a file-based backend, stored in a single small file so listing memory banks doesn't
+ * need to read every metadata file. Each entry records the modification time of the metadata file it was built from,
+ * so stale entries can be found and rebuilt individually.
+ */
+public class MemoryBankCatalog {
+    private static final Logger LOGGER = ChestTracker.getLogger("Catalog");
+
+    private static final Codec<List<Entry>> CODEC = Entry.CODEC.listOf().fieldOf("banks").codec();
+
+    private final Path path;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private boolean loaded = false;
+    private volatile boolean dirty = false;
+
+    public MemoryBankCatalog(Path path) {
+        this.path = path;
+    }
+
+    private synchronized void ensureLoaded() {
+        if (loaded) return;
+        FileUtil.loadFromNbt(CODEC, path).ifPresent(loadedEntries -> loadedEntries.forEach(entry -> entries.putIfAbsent(entry.id(), entry)));
+        LOGGER.debug("Loaded {} entries from {}", entries.size(), path);
+        loaded = true;
+    }
+
+    /**
+     * Returns whether this catalog has been built before.
+     */
+    public boolean exists() {
+        return loaded || Files.isRegularFile(path);
+    }
+
+    /**
+     * Returns every entry in this catalog, reading it from disk the first time.
+     */
+    public Collection<Entry> getEntries() {
+        ensureLoaded();
+        return List.copyOf(entries.values());
+    }
+
+    public Optional<Entry> get(String id) {
+        ensureLoaded();
+        return Optional.ofNullable(entries.get(id));
+    }
+
+    public void put(Entry entry) {
+        ensureLoaded();
+        if (!entry.equals(entries.put(entry.id(), entry))) dirty = true;
+    }
+
+    public void remove(String id) {
+        ensureLoaded();
+        if (entries.remove(id) != null) dirty = true;
+    }
+
+    /**
+     * Keep only entries with the given IDs.
+     */
+    public void retain(Set<String> ids) {
+        ensureLoaded();
+        if (entries.keySet().retainAll(ids)) dirty = true;
+    }
+
+    /**
+     * Write this catalog to disk if anything changed since it was last written.
+     *
+     * @return Whether anything was written
+     */
+    public synchronized boolean save() {
+        if (!dirty) return false;
+        dirty = false;
+        if (!FileUtil.saveToNbt(new ArrayList<>(entries.values()), CODEC, path)) {
+            dirty = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Summary of a single memory bank.
+     *
+     * @param id               ID of the memory bank.
+     * @param name             User-defined name of the memory bank, if any.
+     * @param lastModified     When the memory bank's memories were last changed.
+     * @param size             Size of the memory bank on disk in bytes.
+     * @param memoryCount      Number of memories in the bank, or -1 if not known.
+     * @param metadataModified Modification time of the metadata file this entry was built from, in milliseconds.
+     */
+    public record Entry(
+            String id,
+            @Nullable String name,
+            Instant lastModified,
+            long size,
+            int memoryCount,
+            long metadataModified) {
+        private static final Codec<Entry> CODEC = RecordCodecBuilder.create(instance -> instance.group(
+                Codec.STRING.fieldOf("id").forGetter(Entry::id),
+                Codec.STRING.optionalFieldOf("name").forGetter(entry -> Optional.ofNullable(entry.name())),
+                ExtraCodecs.INSTANT_ISO8601.fieldOf("lastModified").forGetter(Entry::lastModified),
+                Codec.LONG.fieldOf("size").forGetter(Entry::size),
+                Codec.INT.fieldOf("memoryCount").forGetter(Entry::memoryCount),
+                Codec.LONG.fieldOf("metadataModified").forGetter(Entry::metadataModified)
+        ).apply(instance, (id, name, lastModified, size, memoryCount, metadataModified) ->
+                new Entry(id, name.orElse(null), lastModified, size, memoryCount, metadataModified)));
+    }
+}
@@ -0,0 +1,20 @@
+package red.jackf.chesttracker.storage;
+
+import java.util.zip.Deflater;
+
+/**
+ * How NBT files are compressed when written. Loading detects gzip from the file's header, so files written with any
+ * option can be read regardless of the current one.
+ */
+public enum NbtCompression {
+    NONE(Deflater.NO_COMPRESSION),
+    FAST(Deflater.BEST_SPEED),
+    DEFAULT(Deflater.DEFAULT_COMPRESSION),
+    MAX(Deflater.BEST_COMPRESSION);
+
+    public final int level;
+
+    NbtCompression(int level) {
+        this.level = level;
+    }
+}
@@ -1,17 +1,31 @@
 package red.jackf.chesttracker.storage;
 
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
 import net.fabricmc.fabric.api.client.screen.v1.ScreenEvents;
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.screens.PauseScreen;
 import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.phys.Vec3;
 import org.apache.logging.log4j.Logger;
 import red.jackf.chesttracker.ChestTracker;
 import red.jackf.chesttracker.config.ChestTrackerConfig;
 import red.jackf.chesttracker.memory.MemoryBank;
 import red.jackf.chesttracker.memory.metadata.Metadata;
 import red.jackf.chesttracker.storage.backend.Backend;
+import red.jackf.chesttracker.storage.backend.GameMemoryBackend;
+import red.jackf.chesttracker.util.Constants;
+import red.jackf.chesttracker.util.Timer;
 
 import java.util.Collection;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Storage {
 
@@ -20,10 +34,21 @@ public class Storage {
     //////////////
 
     private static final Logger LOGGER = ChestTracker.getLogger("Storage");
+    // single thread so saves are written in the order they were made
+    private static final ExecutorService SAVE_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "Chest Tracker Save");
+        thread.setDaemon(true);
+        return thread;
+    });
     private static Backend backend;
+    // recently unloaded banks from file-based backends, so switching back doesn't re-decode them
+    private static final MemoryBankCache CACHE = new MemoryBankCache(Constants.CACHE_DIR.resolve("banks"));
+    private static CompletableFuture<Boolean> lastSave = CompletableFuture.completedFuture(true);
+    private static long lastSaveMillis = Util.getMillis();
 
     public static void setBackend(Backend backend) {
         Storage.backend = backend;
+        CACHE.clear();
     }
 
     public static void setup() {
@@ -31,9 +56,19 @@ public class Storage {
 
         // storage saving hooks
 
-        // on pause
+        // on pause, unless there's nothing new to write
         ScreenEvents.AFTER_INIT.register((client, screen, scaledWidth, scaledHeight) -> {
-            if (screen instanceof PauseScreen) MemoryBank.save();
+            if (!(screen instanceof PauseScreen) || MemoryBank.INSTANCE == null) return;
+            if (MemoryBank.INSTANCE.hasUnsavedMemories() && !isSaving()) MemoryBank.saveAsync();
+        });
+
+        // periodically while playing
+        AutosaveScheduler.setup();
+
+        // make sure everything is written before closing
+        ClientLifecycleEvents.CLIENT_STOPPING.register(client -> {
+            MemoryBank.unload();
+            flush();
         });
     }
 
@@ -52,11 +87,60 @@ public class Storage {
         return backend.getAllIds();
     }
 
+    /**
+     * Returns a summary of every memory bank, for listing. The current memory bank's name is always up to date; others
+     * may not be until {@link #refreshCatalog()} completes, and the first time a backend is used this may be empty
+     * while its catalog is built in the background.
+     */
+    public static Collection<MemoryBankCatalog.Entry> getCatalog() {
+        var catalog = backend.getCatalog();
+        if (MemoryBank.INSTANCE == null) return catalog;
+        var current = MemoryBank.INSTANCE;
+        return catalog.stream()
+                .map(entry -> entry.id().equals(current.getId()) ? new MemoryBankCatalog.Entry(
+                        entry.id(),
+                        current.getMetadata().getName(),
+                        entry.lastModified(),
+                        entry.size(),
+                        entry.memoryCount(),
+                        entry.metadataModified()) : entry)
+                .toList();
+    }
+
+    /**
+     * Check the catalog against the memory banks on disk in the background, re-reading any that changed.
+     *
+     * @return Future completed with whether the catalog changed, on the render thread.
+     */
+    public static CompletableFuture<Boolean> refreshCatalog() {
+        return backend.refreshCatalog().exceptionally(ex -> {
+            LOGGER.error("Error refreshing catalog", ex);
+            return false;
+        }).thenApplyAsync(changed -> changed, Minecraft.getInstance());
+    }
+
+    /**
+     * Find memories that held any of the given items near a point using the backend's index on disk, if it has one.
+     * The query runs in the background; results are as of the last committed save, or any committed since.
+     *
+     * @return Future packed positions of possibly matching memories, or an empty optional if the backend can't answer.
+     */
+    public static CompletableFuture<Optional<LongSet>> findItemPositions(String id, ResourceLocation key, Set<Item> items, Vec3 origin, int range) {
+        var queryBackend = backend;
+        return CompletableFuture.supplyAsync(() -> queryBackend.findItemPositions(id, key, items, origin, range), Util.backgroundExecutor())
+                .exceptionally(ex -> {
+                    LOGGER.error("Error querying {}", id, ex);
+                    return Optional.empty();
+                });
+    }
+
     public static boolean exists(String id) {
         return backend.exists(id);
     }
 
     public static void delete(String id) {
+        flush();
+        CACHE.remove(id);
         backend.delete(id);
     }
 
@@ -67,19 +151,104 @@ public class Storage {
     public static Optional<MemoryBank> load(String id) {
         if (MemoryBank.INSTANCE != null && id.equals(MemoryBank.INSTANCE.getId()))
             return Optional.of(MemoryBank.INSTANCE);
+        flush();
+        var cached = backend instanceof GameMemoryBackend ? null : CACHE.get(id);
+        if (cached != null) {
+            // keeps its own saved version, in case its last save failed
+            LOGGER.debug("Loading {} from cache", id);
+            return Optional.of(cached);
+        }
         LOGGER.debug("Loading {} using {}", id, backend.getClass().getSimpleName());
         var loaded = backend.load(id);
         if (loaded == null) return Optional.empty();
         loaded.setId(id);
+        // matches what's on disk
+        if (!(backend instanceof GameMemoryBackend)) {
+            loaded.markSaved(loaded.getVersion());
+            loaded.markCommitted(loaded.getVersion());
+        }
         return Optional.of(loaded);
     }
 
+    /**
+     * Keep a memory bank that's being unloaded in memory, so loading it again doesn't need to decode it. Should be
+     * called after saving.
+     */
+    public static void cache(MemoryBank bank) {
+        // already kept in memory by the backend
+        if (backend instanceof GameMemoryBackend) return;
+        CACHE.put(bank);
+    }
+
+    /**
+     * Drop every cached memory bank, such as after they've been changed on disk.
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * Save a memory bank, waiting until it and any earlier background saves have been written.
+     */
     public static void save(MemoryBank bank) {
+        saveAsync(bank).join();
+    }
+
+    /**
+     * Save a memory bank in the background. The bank is snapshotted immediately, so it can keep being changed while
+     * this is written. Backends skip writing memories if they haven't changed since the last save.
+     *
+     * @param bank Memory bank to save
+     * @return Future completed with whether the save was successful, once written.
+     */
+    public static CompletableFuture<Boolean> saveAsync(MemoryBank bank) {
         if (bank == null) {
             LOGGER.warn("Tried to save null Memory Bank");
-            return;
+            return CompletableFuture.completedFuture(false);
         }
-        bank.getMetadata().updateModified();
-        backend.save(bank);
+        if (bank.hasUnsavedMemories()) bank.getMetadata().updateModified();
+        var id = bank.getId();
+        lastSaveMillis = Util.getMillis();
+        var saveBackend = backend;
+        var task = saveBackend.prepareSave(bank);
+        var snapshot = bank.getSnapshot();
+        var version = bank.getVersion();
+        bank.markSaved(version);
+        lastSave = CompletableFuture.supplyAsync(() -> {
+            var result = Timer.time(task::getAsBoolean);
+            LOGGER.debug("Saved {} in {}ns", id, result.getSecond());
+            if (result.getFirst()) saveBackend.onSaved(snapshot);
+            return result.getFirst();
+        }, SAVE_EXECUTOR).exceptionally(ex -> {
+            LOGGER.error("Error saving {}", id, ex);
+            return false;
+        }).thenApply(success -> {
+            if (success) Minecraft.getInstance().execute(() -> bank.markCommitted(version));
+            // try again next time
+            else Minecraft.getInstance().execute(bank::markUnsaved);
+            return success;
+        });
+        return lastSave;
+    }
+
+    /**
+     * Returns whether a background save is still being written.
+     */
+    public static boolean isSaving() {
+        return !lastSave.isDone();
+    }
+
+    /**
+     * Returns when the last save was started, in {@link Util#getMillis()} time.
+     */
+    public static long getLastSaveMillis() {
+        return lastSaveMillis;
+    }
+
+    /**
+     * Wait for any background saves to finish writing.
+     */
+    public static void flush() {
+        lastSave.join();
     }
 }
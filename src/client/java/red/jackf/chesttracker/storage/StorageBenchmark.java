@@ -0,0 +1,155 @@
+package red.jackf.chesttracker.storage;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.mojang.serialization.JsonOps;
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.nbt.Tag;
+import net.minecraft.resources.ResourceLocation;
+import org.apache.logging.log4j.Logger;
+import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.memory.Memory;
+import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.storage.backend.BinaryFormat;
+import red.jackf.chesttracker.util.FileUtil;
+import red.jackf.chesttracker.util.StringUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static net.minecraft.network.chat.Component.literal;
+
+/**
+ * Compares encode time, decode time and size of the current memory bank in each file format, and checks that each
+ * format decodes back to the same memories. Results are logged and posted to chat.
+ */
+public class StorageBenchmark {
+    private static final Logger LOGGER = ChestTracker.getLogger("Benchmark");
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+
+    private static final List<Format> FORMATS = List.of(
+            new Format("NBT (none)", memories -> encodeNbt(memories, NbtCompression.NONE), StorageBenchmark::decodeNbt),
+            new Format("NBT (fast)", memories -> encodeNbt(memories, NbtCompression.FAST), StorageBenchmark::decodeNbt),
+            new Format("NBT (default)", memories -> encodeNbt(memories, NbtCompression.DEFAULT), StorageBenchmark::decodeNbt),
+            new Format("NBT (max)", memories -> encodeNbt(memories, NbtCompression.MAX), StorageBenchmark::decodeNbt),
+            new Format("JSON", StorageBenchmark::encodeJson, StorageBenchmark::decodeJson),
+            new Format("Binary", StorageBenchmark::encodeBinary, StorageBenchmark::decodeBinary)
+    );
+
+    private static boolean running = false;
+
+    /**
+     * Run the benchmark against the currently loaded memory bank on a background thread. Does nothing if no memory
+     * bank is loaded or a benchmark is already running.
+     */
+    public static void run() {
+        if (MemoryBank.INSTANCE == null || running) return;
+        running = true;
+        var snapshot = MemoryBank.INSTANCE.takeSnapshot();
+        CompletableFuture.runAsync(() -> {
+            var memories = snapshot.getAllMemories();
+            var expected = encodeForComparison(memories);
+            for (Format format : FORMATS) {
+                String result;
+                try {
+                    result = format.benchmark(memories, expected);
+                } catch (IOException | RuntimeException ex) {
+                    LOGGER.error("Error benchmarking {}", format.name(), ex);
+                    result = format.name() + ": error, see log";
+                }
+                LOGGER.info(result);
+                final var message = result;
+                Minecraft.getInstance().execute(() -> Minecraft.getInstance().gui.getChat().addMessage(literal(message)));
+            }
+        }, Util.backgroundExecutor()).whenComplete((unused, ex) -> Minecraft.getInstance().execute(() -> running = false));
+    }
+
+    private static Tag encodeForComparison(Map<ResourceLocation, Map<BlockPos, Memory>> memories) {
+        return MemoryBank.MEMORIES_CODEC.encodeStart(NbtOps.INSTANCE, memories)
+                .resultOrPartial(Util.prefix("Error encoding memories: ", LOGGER::error))
+                .orElse(null);
+    }
+
+    private static byte[] encodeNbt(Map<ResourceLocation, Map<BlockPos, Memory>> memories, NbtCompression compression) throws IOException {
+        if (!(encodeForComparison(memories) instanceof CompoundTag compound)) throw new IOException("Not a compound tag");
+        var bytes = new ByteArrayOutputStream();
+        FileUtil.writeNbt(compound, bytes, compression);
+        return bytes.toByteArray();
+    }
+
+    private static Map<ResourceLocation, Map<BlockPos, Memory>> decodeNbt(byte[] bytes) throws IOException {
+        var tag = FileUtil.readNbt(new ByteArrayInputStream(bytes));
+        return MemoryBank.MEMORIES_CODEC.parse(NbtOps.INSTANCE, tag).getOrThrow(false, LOGGER::error);
+    }
+
+    private static byte[] encodeJson(Map<ResourceLocation, Map<BlockPos, Memory>> memories) {
+        var json = MemoryBank.MEMORIES_CODEC.encodeStart(JsonOps.INSTANCE, memories).getOrThrow(false, LOGGER::error);
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Map<ResourceLocation, Map<BlockPos, Memory>> decodeJson(byte[] bytes) {
+        JsonElement json = JsonParser.parseString(new String(bytes, StandardCharsets.UTF_8));
+        return MemoryBank.MEMORIES_CODEC.parse(JsonOps.INSTANCE, json).getOrThrow(false, LOGGER::error);
+    }
+
+    private static byte[] encodeBinary(Map<ResourceLocation, Map<BlockPos, Memory>> memories) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(bytes)))) {
+            BinaryFormat.write(output, memories);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Map<ResourceLocation, Map<BlockPos, Memory>> decodeBinary(byte[] bytes) throws IOException {
+        try (var input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes))))) {
+            return BinaryFormat.read(input);
+        }
+    }
+
+    private interface Encoder {
+        byte[] encode(Map<ResourceLocation, Map<BlockPos, Memory>> memories) throws IOException;
+    }
+
+    private interface Decoder {
+        Map<ResourceLocation, Map<BlockPos, Memory>> decode(byte[] bytes) throws IOException;
+    }
+
+    private record Format(String name, Encoder encoder, Decoder decoder) {
+        private String benchmark(Map<ResourceLocation, Map<BlockPos, Memory>> memories, Tag expected) throws IOException {
+            for (int i = 0; i < WARMUP_RUNS; i++) decoder.decode(encoder.encode(memories));
+
+            byte[] encoded = null;
+            Map<ResourceLocation, Map<BlockPos, Memory>> decoded = null;
+            long encodeTime = 0;
+            long decodeTime = 0;
+            for (int i = 0; i < MEASURED_RUNS; i++) {
+                long start = System.nanoTime();
+                encoded = encoder.encode(memories);
+                encodeTime += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                decoded = decoder.decode(encoded);
+                decodeTime += System.nanoTime() - start;
+            }
+
+            boolean roundTrips = Objects.equals(expected, encodeForComparison(decoded));
+            return "%s: encode %.2fms, decode %.2fms, %sB, round trip %s".formatted(
+                    name,
+                    encodeTime / (MEASURED_RUNS * 1_000_000.0),
+                    decodeTime / (MEASURED_RUNS * 1_000_000.0),
+                    StringUtil.magnitudeSpace(encoded.length, 2),
+                    roundTrips ? "OK" : "MISMATCH");
+        }
+    }
+}
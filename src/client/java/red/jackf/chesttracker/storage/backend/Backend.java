@@ -1,13 +1,22 @@
 package red.jackf.chesttracker.storage.backend;
 
+import it.unimi.dsi.fastutil.longs.LongSet;
 import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.phys.Vec3;
 import org.jetbrains.annotations.Nullable;
 import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.memory.MemoryBankSnapshot;
 import red.jackf.chesttracker.memory.metadata.Metadata;
+import red.jackf.chesttracker.storage.MemoryBankCatalog;
 import red.jackf.chesttracker.storage.Storage;
 
 import java.util.Collection;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
 
 /**
  * A handler for storing a memory bank in a black-box format
@@ -35,7 +44,26 @@ public interface Backend {
      *
      * @param memoryBank Memory bank to save to this storage.
      */
-    boolean save(MemoryBank memoryBank);
+    default boolean save(MemoryBank memoryBank) {
+        return prepareSave(memoryBank).getAsBoolean();
+    }
+
+    /**
+     * Prepare to save this memory bank and metadata. Called on the render thread; anything read from the memory bank
+     * should be captured here, such as with {@link MemoryBank#takeSnapshot()}. The returned task does the encoding and
+     * writing, and may be run on another thread.
+     *
+     * @param memoryBank Memory bank to save to this storage.
+     * @return Task that finishes saving, returning whether it was successful.
+     */
+    BooleanSupplier prepareSave(MemoryBank memoryBank);
+
+    /**
+     * Called on the save thread after a memory bank has been successfully saved with this backend.
+     *
+     * @param snapshot Snapshot of the memory bank that was saved.
+     */
+    default void onSaved(MemoryBankSnapshot snapshot) {}
 
     /**
      * Returns a small label to show at the top of the "edit memory bank" screen.
@@ -54,6 +82,28 @@ public interface Backend {
      */
     Collection<String> getAllIds();
 
+    /**
+     * Returns a summary of every memory bank in this storage, for listing. May be out of date if memory banks were
+     * changed outside the game; see {@link #refreshCatalog()}.
+     *
+     * @return Summaries of all memory banks accessible by this storage.
+     */
+    default Collection<MemoryBankCatalog.Entry> getCatalog() {
+        return getAllIds().stream()
+                .flatMap(id -> loadMetadata(id).map(meta -> new MemoryBankCatalog.Entry(
+                        id, meta.getName(), meta.getLastModified(), -1L, -1, -1L)).stream())
+                .toList();
+    }
+
+    /**
+     * Bring the catalog up to date with the memory banks in this storage, in the background.
+     *
+     * @return Future completed with whether any part of the catalog changed.
+     */
+    default CompletableFuture<Boolean> refreshCatalog() {
+        return CompletableFuture.completedFuture(false);
+    }
+
     /**
      * Check whether an ID exists for this storage.
      *
@@ -81,10 +131,29 @@ public interface Backend {
      */
     boolean saveMetadata(String id, Metadata metadata);
 
+    /**
+     * Find memories in a saved memory bank that held any of the given items near a point, using an index on disk
+     * instead of the loaded bank. Only supported by backends that index items; see {@link SqliteBackend}. Called on a
+     * background thread, and may wait for a save in progress.
+     *
+     * @param id     ID of the memory bank to search
+     * @param key    Memory key to search in
+     * @param items  Items to look for
+     * @param origin Point to search around
+     * @param range  Distance from the origin to search along each axis
+     * @return Packed positions of possibly matching memories as of the last save, or an empty optional if not supported.
+     */
+    default Optional<LongSet> findItemPositions(String id, ResourceLocation key, Set<Item> items, Vec3 origin, int range) {
+        return Optional.empty();
+    }
 
     enum Type {
         JSON(new JsonBackend()),
         NBT(new NbtBackend()),
+        BINARY(new BinaryBackend()),
+        JOURNAL(new JournalBackend()),
+        SHARDED(new ShardedBackend()),
+        SQLITE(new SqliteBackend()),
         MEMORY(new GameMemoryBackend());
 
         public final Backend instance;
@@ -0,0 +1,170 @@
+package red.jackf.chesttracker.storage.backend;
+
+import com.google.gson.JsonParseException;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.memory.Memory;
+import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.memory.metadata.Metadata;
+import red.jackf.chesttracker.util.Constants;
+import red.jackf.chesttracker.util.FileUtil;
+import red.jackf.chesttracker.util.Timer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores memory banks in the compact {@link BinaryFormat}, gzipped, behind an uncompressed {@link BinaryFormat.Header}.
+ * Metadata lives in the header rather than a separate file, so listing banks only reads the header, and loading is a
+ * single sequential read of one file.
+ * <p>
+ * Files from before headers were added are still read, using their separate metadata file, and are upgraded on their
+ * next save.
+ */
+public class BinaryBackend extends FileBasedBackend {
+    private static final Logger LOGGER = LogManager.getLogger(ChestTracker.class.getCanonicalName() + "/Binary");
+
+    @Override
+    public String extension() {
+        return ".ctb";
+    }
+
+    // metadata is in the data file itself
+    @Override
+    protected String metadataExtension() {
+        return extension();
+    }
+
+    private static Path getPath(String id) {
+        return Constants.STORAGE_DIR.resolve(id + ".ctb");
+    }
+
+    @Override
+    protected List<Path> getRelevantPaths(String id) {
+        return List.of(getPath(id), getLegacyMetadataPath(id));
+    }
+
+    @Override
+    public Optional<Metadata> loadMetadata(String id) {
+        var path = getPath(id);
+        if (!Files.isRegularFile(path)) return Optional.empty();
+        try (var input = new BufferedInputStream(Files.newInputStream(path))) {
+            if (!BinaryFormat.hasHeader(input)) return loadMetadata(id, getLegacyMetadataPath(id));
+            var header = BinaryFormat.readHeader(new DataInputStream(input));
+            memoryCounts.put(id, header.getMemoryCount());
+            return decodeMetadata(id, header.metadata());
+        } catch (JsonParseException | IOException ex) {
+            // only used for listing, so leave the file for load() to recover what it can
+            LOGGER.error("Error reading header of {}", path, ex);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public @Nullable MemoryBank load(String id) {
+        var path = getPath(id);
+        if (!Files.isRegularFile(path)) return null;
+
+        var result = Timer.time(() -> read(id, path));
+        LOGGER.debug("Loaded {} in {}ns", path, result.getSecond());
+        return result.getFirst();
+    }
+
+    @Nullable
+    private MemoryBank read(String id, Path path) {
+        Optional<Metadata> meta = Optional.empty();
+        try (var input = new BufferedInputStream(Files.newInputStream(path))) {
+            if (BinaryFormat.hasHeader(input)) {
+                var header = BinaryFormat.readHeader(new DataInputStream(input));
+                memoryCounts.put(id, header.getMemoryCount());
+                meta = decodeMetadata(id, header.metadata());
+            } else {
+                meta = loadMetadata(id, getLegacyMetadataPath(id));
+            }
+            if (meta.isEmpty()) return null;
+
+            // the body follows straight after the header
+            return new MemoryBank(meta.get(), BinaryFormat.read(new DataInputStream(new BufferedInputStream(new GZIPInputStream(input)))));
+        } catch (JsonParseException | IOException ex) {
+            LOGGER.error("Error loading {}", path, ex);
+            FileUtil.tryMove(path, path.resolveSibling(path.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+            return meta.map(metadata -> new MemoryBank(metadata, new HashMap<>())).orElse(null);
+        }
+    }
+
+    @Override
+    public BooleanSupplier prepareSave(MemoryBank memoryBank) {
+        var snapshot = memoryBank.takeSnapshot();
+        var path = getPath(snapshot.id());
+        boolean memoriesChanged = memoryBank.hasUnsavedMemories();
+        return () -> {
+            LOGGER.debug("Saving {}", snapshot.id());
+            var metaJson = encodeMetadata(snapshot.metadata());
+            if (metaJson.isEmpty()) return false;
+
+            var header = new BinaryFormat.Header(metaJson.get(), snapshot.getKeyCounts());
+            boolean success;
+            if (!memoriesChanged && hasHeader(path)) {
+                if (metaJson.get().equals(lastMetadata.get(snapshot.id()))) {
+                    LOGGER.debug("Skipping unchanged memory bank {}", snapshot.id());
+                    return true;
+                }
+                success = rewriteHeader(path, header);
+            } else {
+                success = write(path, header, snapshot.getAllMemories());
+            }
+
+            if (success) finishSave(snapshot.id(), header);
+            return success;
+        };
+    }
+
+    /**
+     * Replace the metadata in an existing file, keeping the memories as they are.
+     */
+    @Override
+    public boolean saveMetadata(String id, Metadata metadata) {
+        var path = getPath(id);
+        var metaJson = encodeMetadata(metadata);
+        if (metaJson.isEmpty() || !hasHeader(path)) return false;
+        if (metaJson.get().equals(lastMetadata.get(id))) return true;
+
+        Map<ResourceLocation, Integer> counts;
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            counts = BinaryFormat.readHeader(input).counts();
+        } catch (JsonParseException | IOException ex) {
+            LOGGER.error("Error reading header of {}", path, ex);
+            return false;
+        }
+
+        var header = new BinaryFormat.Header(metaJson.get(), counts);
+        if (!rewriteHeader(path, header)) return false;
+        finishSave(id, header);
+        return true;
+    }
+
+    private void finishSave(String id, BinaryFormat.Header header) {
+        lastMetadata.put(id, header.metadata());
+        memoryCounts.put(id, header.getMemoryCount());
+        deleteLegacyMetadata(id);
+    }
+
+    private static boolean write(Path path, BinaryFormat.Header header, Map<ResourceLocation, Map<BlockPos, Memory>> memories) {
+        return writeVia(path, output -> {
+            BinaryFormat.writeHeader(new DataOutputStream(output), header);
+            var body = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(output)));
+            BinaryFormat.write(body, memories);
+            body.close();
+        });
+    }
+}
@@ -0,0 +1,307 @@
+package red.jackf.chesttracker.storage.backend;
+
+import com.google.gson.JsonElement;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.block.Block;
+import red.jackf.chesttracker.memory.Memory;
+import red.jackf.chesttracker.util.FileUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Hand-written binary encoding for memories, skipping the intermediate trees created by
+ * {@link red.jackf.chesttracker.memory.MemoryBank#MEMORIES_CODEC}.
+ * <ul>
+ *     <li>Items and container blocks are written once each in palettes at the start, then referred to by index.</li>
+ *     <li>Positions are sorted and written as variable-length differences from the previous one.</li>
+ *     <li>Item NBT is only written for stacks that have any.</li>
+ *     <li>Real timestamps are written as epoch seconds and nanoseconds.</li>
+ * </ul>
+ * Files may also start with an uncompressed {@link Header}, holding the bank's metadata and the number of memories in
+ * each key, so they can be listed without reading the rest.
+ */
+public class BinaryFormat {
+    private static final int MAGIC = 0x43544D42; // CTMB
+    private static final int VERSION = 1;
+    private static final int HEADER_MAGIC = 0x43544248; // CTBH
+    private static final int HEADER_VERSION = 2;
+
+    private static final int FLAG_NAME = 1;
+    private static final int FLAG_CONTAINER = 1 << 1;
+
+    private BinaryFormat() {}
+
+    public static void write(DataOutput output, Map<ResourceLocation, Map<BlockPos, Memory>> memories) throws IOException {
+        var items = new Palette<Item>();
+        var blocks = new Palette<Block>();
+        for (var key : memories.values()) {
+            for (Memory memory : key.values()) {
+                for (ItemStack stack : memory.items()) items.add(stack.getItem());
+                memory.container().ifPresent(blocks::add);
+            }
+        }
+
+        output.writeInt(MAGIC);
+        writeVarInt(output, VERSION);
+
+        writeVarInt(output, items.size());
+        for (Item item : items.values) output.writeUTF(BuiltInRegistries.ITEM.getKey(item).toString());
+        writeVarInt(output, blocks.size());
+        for (Block block : blocks.values) output.writeUTF(BuiltInRegistries.BLOCK.getKey(block).toString());
+
+        writeVarInt(output, memories.size());
+        for (var key : memories.entrySet()) {
+            output.writeUTF(key.getKey().toString());
+            writeKey(output, key.getValue(), items, blocks);
+        }
+    }
+
+    private static void writeKey(DataOutput output, Map<BlockPos, Memory> memories, Palette<Item> items, Palette<Block> blocks) throws IOException {
+        var positions = new long[memories.size()];
+        var byPosition = new HashMap<Long, Memory>(memories.size());
+        int index = 0;
+        for (var entry : memories.entrySet()) {
+            positions[index++] = entry.getKey().asLong();
+            byPosition.put(entry.getKey().asLong(), entry.getValue());
+        }
+        Arrays.sort(positions);
+
+        writeVarInt(output, positions.length);
+        long previous = 0;
+        for (long pos : positions) {
+            writeVarLong(output, zigZag(pos - previous));
+            previous = pos;
+            writeMemory(output, pos, byPosition.get(pos), items, blocks);
+        }
+    }
+
+    private static void writeMemory(DataOutput output, long pos, Memory memory, Palette<Item> items, Palette<Block> blocks) throws IOException {
+        int flags = 0;
+        if (memory.name() != null) flags |= FLAG_NAME;
+        if (memory.container().isPresent()) flags |= FLAG_CONTAINER;
+        output.writeByte(flags);
+
+        if (memory.name() != null) output.writeUTF(Component.Serializer.toJson(memory.name()));
+        if (memory.container().isPresent()) writeVarInt(output, blocks.indexOf(memory.container().get()));
+
+        writeVarInt(output, memory.otherPositions().size());
+        for (BlockPos other : memory.otherPositions()) writeVarLong(output, zigZag(other.asLong() - pos));
+
+        writeVarLong(output, zigZag(memory.loadedTimestamp()));
+        writeVarLong(output, zigZag(memory.inGameTimestamp()));
+        writeVarLong(output, zigZag(memory.realTimestamp().getEpochSecond()));
+        writeVarInt(output, memory.realTimestamp().getNano());
+
+        writeVarInt(output, memory.items().size());
+        for (ItemStack stack : memory.items()) {
+            writeVarInt(output, items.indexOf(stack.getItem()));
+            writeVarInt(output, stack.getCount());
+            var tag = stack.getTag();
+            output.writeBoolean(tag != null);
+            if (tag != null) NbtIo.write(tag, output);
+        }
+    }
+
+    public static Map<ResourceLocation, Map<BlockPos, Memory>> read(DataInput input) throws IOException {
+        if (input.readInt() != MAGIC) throw new IOException("Not a binary memory file");
+        int version = readVarInt(input);
+        if (version != VERSION) throw new IOException("Unknown binary memory version " + version);
+
+        var items = new Item[readVarInt(input)];
+        for (int i = 0; i < items.length; i++) items[i] = BuiltInRegistries.ITEM.get(new ResourceLocation(input.readUTF()));
+        var blocks = new Block[readVarInt(input)];
+        for (int i = 0; i < blocks.length; i++) blocks[i] = BuiltInRegistries.BLOCK.get(new ResourceLocation(input.readUTF()));
+
+        int keyCount = readVarInt(input);
+        var memories = new HashMap<ResourceLocation, Map<BlockPos, Memory>>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            var key = new ResourceLocation(input.readUTF());
+            memories.put(key, readKey(input, items, blocks));
+        }
+        return memories;
+    }
+
+    private static Map<BlockPos, Memory> readKey(DataInput input, Item[] items, Block[] blocks) throws IOException {
+        int count = readVarInt(input);
+        var memories = new HashMap<BlockPos, Memory>(count);
+        long pos = 0;
+        for (int i = 0; i < count; i++) {
+            pos += unZigZag(readVarLong(input));
+            memories.put(BlockPos.of(pos), readMemory(input, pos, items, blocks));
+        }
+        return memories;
+    }
+
+    private static Memory readMemory(DataInput input, long pos, Item[] items, Block[] blocks) throws IOException {
+        int flags = input.readByte();
+        Component name = (flags & FLAG_NAME) != 0 ? Component.Serializer.fromJson(input.readUTF()) : null;
+        Optional<Block> container = (flags & FLAG_CONTAINER) != 0 ? Optional.of(blocks[readVarInt(input)]) : Optional.empty();
+
+        int otherCount = readVarInt(input);
+        var otherPositions = new ArrayList<BlockPos>(otherCount);
+        for (int i = 0; i < otherCount; i++) otherPositions.add(BlockPos.of(pos + unZigZag(readVarLong(input))));
+
+        long loadedTimestamp = unZigZag(readVarLong(input));
+        long inGameTimestamp = unZigZag(readVarLong(input));
+        var realTimestamp = Instant.ofEpochSecond(unZigZag(readVarLong(input)), readVarInt(input));
+
+        int itemCount = readVarInt(input);
+        var stacks = new ArrayList<ItemStack>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            var stack = new ItemStack(items[readVarInt(input)], readVarInt(input));
+            if (input.readBoolean()) stack.setTag(NbtIo.read(input));
+            stacks.add(stack);
+        }
+
+        return new Memory(stacks, name, otherPositions, container, loadedTimestamp, inGameTimestamp, realTimestamp);
+    }
+
+    ////////////
+    // HEADER //
+    ////////////
+
+    /**
+     * Returns whether a stream starts with a header, without consuming anything.
+     */
+    public static boolean hasHeader(BufferedInputStream input) throws IOException {
+        input.mark(Integer.BYTES);
+        try {
+            return new DataInputStream(input).readInt() == HEADER_MAGIC;
+        } catch (EOFException ex) {
+            return false;
+        } finally {
+            input.reset();
+        }
+    }
+
+    /**
+     * Writes a header, prefixed with its length so it can be skipped.
+     */
+    public static void writeHeader(DataOutput output, Header header) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var body = new DataOutputStream(bytes);
+        var metadata = FileUtil.gson().toJson(header.metadata()).getBytes(StandardCharsets.UTF_8);
+        writeVarInt(body, metadata.length);
+        body.write(metadata);
+        writeVarInt(body, header.counts().size());
+        for (var entry : header.counts().entrySet()) {
+            body.writeUTF(entry.getKey().toString());
+            writeVarInt(body, entry.getValue());
+        }
+
+        output.writeInt(HEADER_MAGIC);
+        writeVarInt(output, HEADER_VERSION);
+        output.writeInt(bytes.size());
+        output.write(bytes.toByteArray());
+    }
+
+    public static Header readHeader(DataInput input) throws IOException {
+        var body = new DataInputStream(new ByteArrayInputStream(readHeaderBytes(input)));
+        var metadata = new byte[readVarInt(body)];
+        body.readFully(metadata);
+        var json = FileUtil.gson().fromJson(new String(metadata, StandardCharsets.UTF_8), JsonElement.class);
+
+        int keyCount = readVarInt(body);
+        var counts = new HashMap<ResourceLocation, Integer>(keyCount);
+        for (int i = 0; i < keyCount; i++) counts.put(new ResourceLocation(body.readUTF()), readVarInt(body));
+        return new Header(json, counts);
+    }
+
+    /**
+     * Moves past a header without decoding it.
+     */
+    public static void skipHeader(DataInput input) throws IOException {
+        readHeaderBytes(input);
+    }
+
+    private static byte[] readHeaderBytes(DataInput input) throws IOException {
+        if (input.readInt() != HEADER_MAGIC) throw new IOException("Not a binary memory header");
+        int version = readVarInt(input);
+        if (version != HEADER_VERSION) throw new IOException("Unknown binary memory header version " + version);
+        var bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param metadata Metadata of the memory bank, as encoded with {@link red.jackf.chesttracker.memory.metadata.Metadata#CODEC}.
+     * @param counts   Number of memories in each key.
+     */
+    public record Header(JsonElement metadata, Map<ResourceLocation, Integer> counts) {
+        public int getMemoryCount() {
+            int count = 0;
+            for (int keyCount : counts.values()) count += keyCount;
+            return count;
+        }
+    }
+
+    /////////////
+    // VARINTS //
+    /////////////
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(DataOutput output, int value) throws IOException {
+        writeVarLong(output, value & 0xFFFFFFFFL);
+    }
+
+    private static int readVarInt(DataInput input) throws IOException {
+        return (int) readVarLong(input);
+    }
+
+    private static void writeVarLong(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("VarLong too long");
+    }
+
+    /**
+     * Assigns each distinct value an index in the order they were first added.
+     */
+    private static class Palette<T> {
+        private final List<T> values = new ArrayList<>();
+        private final Map<T, Integer> indexes = new IdentityHashMap<>();
+
+        private void add(T value) {
+            if (!indexes.containsKey(value)) {
+                indexes.put(value, values.size());
+                values.add(value);
+            }
+        }
+
+        private int indexOf(T value) {
+            return indexes.get(value);
+        }
+
+        private int size() {
+            return values.size();
+        }
+    }
+}
@@ -8,21 +8,22 @@ import net.minecraft.network.chat.Component;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.memory.MemoryBankSnapshot;
 import red.jackf.chesttracker.memory.metadata.Metadata;
+import red.jackf.chesttracker.storage.MemoryBankCatalog;
 import red.jackf.chesttracker.util.Constants;
 import red.jackf.chesttracker.util.FileUtil;
 import red.jackf.chesttracker.util.StringUtil;
 
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static net.minecraft.network.chat.Component.translatable;
@@ -30,22 +31,112 @@ import static net.minecraft.network.chat.Component.translatable;
 public abstract class FileBasedBackend implements Backend {
     public static final Logger LOGGER = LogManager.getLogger(ChestTracker.class.getCanonicalName() + "/File Storage");
 
+    // last metadata read or written for each ID, so unchanged metadata isn't rewritten; accessed from the save thread
+    protected final Map<String, JsonElement> lastMetadata = new ConcurrentHashMap<>();
+    // memory counts from the last header read or written for each ID, for backends that embed one in the data file
+    protected final Map<String, Integer> memoryCounts = new ConcurrentHashMap<>();
+    @Nullable
+    private MemoryBankCatalog catalog = null;
+    // current background rebuild of the catalog, shared between callers while it runs
+    private CompletableFuture<Boolean> refresh = CompletableFuture.completedFuture(false);
+
+    private synchronized MemoryBankCatalog catalog() {
+        if (catalog == null) catalog = new MemoryBankCatalog(Constants.STORAGE_DIR.resolve("catalog" + extension() + ".index"));
+        return catalog;
+    }
+
+    @Override
+    public Collection<MemoryBankCatalog.Entry> getCatalog() {
+        // first time with this backend, so build it in the background; callers pick it up from refreshCatalog()
+        if (!catalog().exists()) refreshCatalog();
+        return catalog().getEntries();
+    }
+
+    @Override
+    public synchronized CompletableFuture<Boolean> refreshCatalog() {
+        if (refresh.isDone()) refresh = CompletableFuture.supplyAsync(this::rebuildCatalog, Util.backgroundExecutor());
+        return refresh;
+    }
+
+    /**
+     * Re-read the metadata of any memory bank with a metadata file modified since its catalog entry was made, and
+     * remove entries for memory banks that no longer exist. Runs in the background, so may count memories from the
+     * data file if they aren't already known.
+     *
+     * @return Whether the catalog changed
+     */
+    private boolean rebuildCatalog() {
+        var catalog = catalog();
+        var ids = new HashSet<>(getAllIds());
+        int updated = 0;
+        for (String id : ids) {
+            long metadataModified = getLastModifiedTime(getMetadataPath(id));
+            var existing = catalog.get(id);
+            if (existing.isPresent() && existing.get().metadataModified() == metadataModified) continue;
+            var meta = loadMetadata(id);
+            if (meta.isEmpty()) continue;
+            catalog.put(new MemoryBankCatalog.Entry(
+                    id,
+                    meta.get().getName(),
+                    meta.get().getLastModified(),
+                    getSize(id),
+                    getMemoryCount(id, existing.map(MemoryBankCatalog.Entry::memoryCount).orElse(-1)),
+                    metadataModified));
+            updated++;
+        }
+        catalog.retain(ids);
+        boolean changed = catalog.save();
+        if (changed) LOGGER.debug("Updated catalog: {} of {} entries rebuilt", updated, ids.size());
+        return changed;
+    }
+
+    @Override
+    public void onSaved(MemoryBankSnapshot snapshot) {
+        var catalog = catalog();
+        catalog.put(new MemoryBankCatalog.Entry(
+                snapshot.id(),
+                snapshot.metadata().getName(),
+                snapshot.metadata().getLastModified(),
+                getSize(snapshot.id()),
+                snapshot.getMemoryCount(),
+                getLastModifiedTime(getMetadataPath(snapshot.id()))));
+        catalog.save();
+    }
+
     @Override
     public Collection<String> getAllIds() {
         if (!Files.isDirectory(Constants.STORAGE_DIR)) return Collections.emptyList();
-        try (var stream = Files.walk(Constants.STORAGE_DIR)) {
-            return stream.filter(path -> path.getFileName().toString().endsWith(metadataExtension()))
-                    .map(path -> StringUtil.formatPath(Constants.STORAGE_DIR.relativize(path)))
-                    .map(s -> s.substring(0, s.length() - metadataExtension().length()))
-                    .toList();
+        var ids = new ArrayList<String>();
+        try {
+            Files.walkFileTree(Constants.STORAGE_DIR, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    // sharded banks keep their files in a directory, which may match other backends' extensions
+                    return ShardedBackend.isBankDirectory(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (file.getFileName().toString().endsWith(metadataExtension())) {
+                        var id = StringUtil.formatPath(Constants.STORAGE_DIR.relativize(file));
+                        ids.add(id.substring(0, id.length() - metadataExtension().length()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
         } catch (IOException e) {
             LOGGER.error(e);
             return Collections.emptyList();
         }
+        return ids;
     }
 
     @Override
     public void delete(String id) {
+        lastMetadata.remove(id);
+        memoryCounts.remove(id);
+        catalog().remove(id);
+        catalog().save();
         getRelevantPaths(id).forEach(path -> {
             if (Files.isRegularFile(path)) {
                 try {
@@ -59,13 +150,14 @@ public abstract class FileBasedBackend implements Backend {
     }
 
     public boolean saveMetadata(String id, Metadata metadata) {
-        Path path = Constants.STORAGE_DIR.resolve(id + metadataExtension());
+        Path path = getMetadataPath(id);
         try {
             Files.createDirectories(path.getParent());
-            Optional<JsonElement> metaJson = Metadata.CODEC.encodeStart(JsonOps.INSTANCE, metadata)
-                    .resultOrPartial(Util.prefix("Error encoding metadata", LOGGER::error));
+            Optional<JsonElement> metaJson = encodeMetadata(metadata);
             if (metaJson.isPresent()) {
+                if (metaJson.get().equals(lastMetadata.get(id)) && Files.isRegularFile(path)) return true;
                 FileUtils.write(path.toFile(), FileUtil.gson().toJson(metaJson.get()), StandardCharsets.UTF_8);
+                lastMetadata.put(id, metaJson.get());
                 return true;
             } else {
                 LOGGER.error("Unknown error encoding metadata");
@@ -78,18 +170,18 @@ public abstract class FileBasedBackend implements Backend {
 
     @Override
     public Optional<Metadata> loadMetadata(String id) {
-        Path path = Constants.STORAGE_DIR.resolve(id + metadataExtension());
+        return loadMetadata(id, getMetadataPath(id));
+    }
+
+    /**
+     * Load metadata for a memory bank from a standalone JSON file.
+     */
+    protected Optional<Metadata> loadMetadata(String id, Path path) {
         if (Files.isRegularFile(path)) {
             try {
                 var str = FileUtils.readFileToString(path.toFile(), StandardCharsets.UTF_8);
-                var json = FileUtil.gson().fromJson(str, JsonElement.class);
-                AtomicReference<Metadata> metadata = new AtomicReference<>(null);
-                Metadata.CODEC.decode(JsonOps.INSTANCE, json)
-                        .resultOrPartial(Util.prefix("Invalid metadata JSON: " + id, LOGGER::error))
-                        .ifPresent(pair -> metadata.set(pair.getFirst()));
-                if (metadata.get() != null) {
-                    return Optional.ofNullable(metadata.get());
-                }
+                var metadata = decodeMetadata(id, FileUtil.gson().fromJson(str, JsonElement.class));
+                if (metadata.isPresent()) return metadata;
             } catch (JsonParseException | IOException ex) {
                 LOGGER.error("Error decoding metadata", ex);
                 FileUtil.tryMove(path, path.resolveSibling(path.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
@@ -98,10 +190,56 @@ public abstract class FileBasedBackend implements Backend {
         return Optional.empty();
     }
 
+    protected static Optional<JsonElement> encodeMetadata(Metadata metadata) {
+        return Metadata.CODEC.encodeStart(JsonOps.INSTANCE, metadata)
+                .resultOrPartial(Util.prefix("Error encoding metadata", LOGGER::error));
+    }
+
+    /**
+     * Decode metadata for a memory bank, remembering it as the last metadata read if successful.
+     */
+    protected Optional<Metadata> decodeMetadata(String id, JsonElement json) {
+        AtomicReference<Metadata> metadata = new AtomicReference<>(null);
+        Metadata.CODEC.decode(JsonOps.INSTANCE, json)
+                .resultOrPartial(Util.prefix("Invalid metadata JSON: " + id, LOGGER::error))
+                .ifPresent(pair -> metadata.set(pair.getFirst()));
+        if (metadata.get() != null) lastMetadata.put(id, json);
+        return Optional.ofNullable(metadata.get());
+    }
+
+    private int getMemoryCount(String id, int lastCount) {
+        var peeked = peekMemoryCount(id);
+        if (peeked.isPresent()) return peeked.getAsInt();
+        if (lastCount != -1) return lastCount;
+        return countMemories(id).orElse(-1);
+    }
+
+    /**
+     * Returns the number of memories in a bank if it can be found without loading it, such as from a file header.
+     */
+    protected OptionalInt peekMemoryCount(String id) {
+        var count = memoryCounts.get(id);
+        return count == null ? OptionalInt.empty() : OptionalInt.of(count);
+    }
+
+    /**
+     * Count the memories in a bank by reading its data file, without decoding them. Only called in the background when
+     * {@link #peekMemoryCount(String)} doesn't know and there's no earlier count to reuse.
+     */
+    protected OptionalInt countMemories(String id) {
+        return OptionalInt.empty();
+    }
+
     @Override
     public Component getDescriptionLabel(String memoryBankId) {
-        long size = getRelevantPaths(memoryBankId).stream().mapToLong(FileBasedBackend::getSizeIfPresent).sum();
-        return translatable("chesttracker.storage.json.fileSize", StringUtil.magnitudeSpace(size, 2) + "B");
+        return translatable("chesttracker.storage.json.fileSize", StringUtil.magnitudeSpace(getSize(memoryBankId), 2) + "B");
+    }
+
+    /**
+     * Returns the total size of a memory bank on disk, in bytes.
+     */
+    protected long getSize(String id) {
+        return getRelevantPaths(id).stream().mapToLong(FileBasedBackend::getSizeIfPresent).sum();
     }
 
     public abstract String extension();
@@ -110,6 +248,80 @@ public abstract class FileBasedBackend implements Backend {
         return extension() + ".meta";
     }
 
+    /**
+     * Returns the file a memory bank's metadata is read from. Memory bank IDs are found by searching for these.
+     */
+    protected Path getMetadataPath(String id) {
+        return Constants.STORAGE_DIR.resolve(id + metadataExtension());
+    }
+
+    /**
+     * Returns where metadata was kept before it was embedded in the data file, for backends that embed it. Still read
+     * if a data file has no embedded metadata, and deleted once it's been rewritten.
+     */
+    protected Path getLegacyMetadataPath(String id) {
+        return Constants.STORAGE_DIR.resolve(id + extension() + ".meta");
+    }
+
+    /**
+     * Delete the separate metadata file after it's been embedded in the data file.
+     */
+    protected void deleteLegacyMetadata(String id) {
+        try {
+            Files.deleteIfExists(getLegacyMetadataPath(id));
+        } catch (IOException ex) {
+            LOGGER.error("Error deleting old metadata for {}", id, ex);
+        }
+    }
+
+    /**
+     * Returns whether a data file starts with a {@link BinaryFormat.Header}, for backends that embed one.
+     */
+    protected static boolean hasHeader(Path path) {
+        if (!Files.isRegularFile(path)) return false;
+        try (var input = new BufferedInputStream(Files.newInputStream(path))) {
+            return BinaryFormat.hasHeader(input);
+        } catch (IOException ex) {
+            LOGGER.error("Error reading {}", path, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Write a new header to a data file, then copy everything after the old one across unchanged.
+     */
+    protected static boolean rewriteHeader(Path path, BinaryFormat.Header header) {
+        return writeVia(path, output -> {
+            BinaryFormat.writeHeader(new DataOutputStream(output), header);
+            try (var input = new BufferedInputStream(Files.newInputStream(path))) {
+                BinaryFormat.skipHeader(new DataInputStream(input));
+                input.transferTo(output);
+            }
+        });
+    }
+
+    /**
+     * Write to a temporary file, then move it into place.
+     */
+    protected static boolean writeVia(Path path, OutputWriter writer) {
+        var tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            try (var output = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+                writer.write(output);
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException ex) {
+            LOGGER.error("Error saving {}", path, ex);
+            return false;
+        }
+    }
+
+    protected interface OutputWriter {
+        void write(OutputStream output) throws IOException;
+    }
+
     protected List<Path> getRelevantPaths(String id) {
         return List.of(
                 Constants.STORAGE_DIR.resolve(id + extension()),
@@ -117,6 +329,14 @@ public abstract class FileBasedBackend implements Backend {
         );
     }
 
+    private static long getLastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException ex) {
+            return -1L;
+        }
+    }
+
     private static long getSizeIfPresent(Path path) {
         return Files.isRegularFile(path) ? FileUtils.sizeOf(path.toFile()) : 0L;
     }
@@ -3,14 +3,17 @@ package red.jackf.chesttracker.storage.backend;
 import org.jetbrains.annotations.Nullable;
 import red.jackf.chesttracker.memory.MemoryBank;
 import red.jackf.chesttracker.memory.metadata.Metadata;
+import red.jackf.chesttracker.storage.MemoryBankCache;
+import red.jackf.chesttracker.util.Constants;
 
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
+import java.util.function.BooleanSupplier;
 
 public class GameMemoryBackend implements Backend {
-    private static final Map<String, MemoryBank> storage = new HashMap<>();
+    // banks past the cache's memory budget are spilled to temporary files, which are cleared on restart
+    private final MemoryBankCache storage = new MemoryBankCache(Constants.CACHE_DIR.resolve("memory"));
 
     @Nullable
     @Override
@@ -24,14 +27,19 @@ public class GameMemoryBackend implements Backend {
     }
 
     @Override
-    public boolean save(MemoryBank memoryBank) {
-        storage.put(memoryBank.getId(), memoryBank);
-        return true;
+    public BooleanSupplier prepareSave(MemoryBank memoryBank) {
+        storage.put(memoryBank);
+        return () -> true;
     }
 
     @Override
     public Collection<String> getAllIds() {
-        return storage.keySet();
+        return storage.getIds();
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return storage.contains(id);
     }
 
     @Override
@@ -43,7 +51,9 @@ public class GameMemoryBackend implements Backend {
     public boolean saveMetadata(String id, Metadata metadata) {
         var bank = storage.get(id);
         if (bank == null) {
-            storage.put(id, new MemoryBank(metadata, new HashMap<>()));
+            bank = new MemoryBank(metadata, new HashMap<>());
+            bank.setId(id);
+            storage.put(bank);
         } else {
             bank.setMetadata(metadata);
         }
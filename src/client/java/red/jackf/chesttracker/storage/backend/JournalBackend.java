@@ -0,0 +1,482 @@
+package red.jackf.chesttracker.storage.backend;
+
+import com.mojang.serialization.Codec;
+import com.mojang.serialization.Dynamic;
+import com.mojang.serialization.codecs.RecordCodecBuilder;
+import net.minecraft.Util;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.ResourceLocationException;
+import net.minecraft.resources.ResourceLocation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.memory.Memory;
+import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.memory.MemoryBankSnapshot;
+import red.jackf.chesttracker.memory.MemoryChangeJournal;
+import red.jackf.chesttracker.util.Constants;
+import red.jackf.chesttracker.util.FileUtil;
+import red.jackf.chesttracker.util.Timer;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Stores a memory bank as a full NBT snapshot, plus a log of changes made since. Saving only appends the changes made
+ * since the last save; once the log grows past {@link #COMPACTION_THRESHOLD_BYTES} a new snapshot is written in the
+ * background, and the log is cut down to whatever was appended while it was written.
+ * <p>
+ * Each log entry is an int length, the entry itself, then a CRC32 of the entry. Loading stops at the first incomplete
+ * or corrupt entry, such as from a crash mid-write, and cuts it from the file.
+ * <p>
+ * Every snapshot has a random generation ID, which is also written at the start of the log made on top of it. Logs
+ * from a different generation are left over from before the last snapshot, such as from a crash during compaction,
+ * and are ignored. Snapshots from a background compaction also record which log they were made from and how much of it
+ * they include, so if interrupted before the log is cut down, the rest of the old log is still replayed.
+ */
+public class JournalBackend extends FileBasedBackend {
+    private static final Logger LOGGER = LogManager.getLogger(ChestTracker.class.getCanonicalName() + "/Journal");
+    private static final long COMPACTION_THRESHOLD_BYTES = 1024 * 1024;
+    private static final int LOG_MAGIC = 0x43544A4C; // CTJL
+    private static final int LOG_HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+    private static final byte OP_CHANGED = 0;
+    private static final byte OP_REMOVED = 1;
+    private static final byte OP_KEY_REMOVED = 2;
+
+    // generation of each bank's snapshot as last loaded or written; removed if its log can't be trusted
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+    // background compactions of each bank, if any have been started
+    private final Map<String, CompletableFuture<Void>> compactions = new ConcurrentHashMap<>();
+    // held while appending to a log or swapping in a new snapshot, so entries never land in a log being replaced
+    private final Object logLock = new Object();
+
+    @Override
+    public String extension() {
+        return ".ctj";
+    }
+
+    private String logExtension() {
+        return extension() + ".log";
+    }
+
+    @Override
+    protected List<Path> getRelevantPaths(String id) {
+        return List.of(
+                Constants.STORAGE_DIR.resolve(id + extension()),
+                Constants.STORAGE_DIR.resolve(id + logExtension()),
+                Constants.STORAGE_DIR.resolve(id + metadataExtension())
+        );
+    }
+
+    @Override
+    public void delete(String id) {
+        awaitCompaction(id);
+        super.delete(id);
+        generations.remove(id);
+    }
+
+    @Override
+    public @Nullable MemoryBank load(String id) {
+        awaitCompaction(id);
+        var meta = loadMetadata(id);
+        if (meta.isEmpty()) return null;
+        var snapshotPath = Constants.STORAGE_DIR.resolve(id + extension());
+        var logPath = Constants.STORAGE_DIR.resolve(id + logExtension());
+
+        var result = Timer.time(() -> {
+            var snapshot = FileUtil.loadFromNbt(Snapshot.CODEC, snapshotPath);
+            if (snapshot.isPresent()) generations.put(id, snapshot.get().generation());
+            else generations.remove(id);
+            Map<ResourceLocation, Dynamic<?>> raw = snapshot.map(Snapshot::memories).orElseGet(HashMap::new);
+            Map<ResourceLocation, Map<BlockPos, Memory>> replayed = new HashMap<>();
+            int entries = snapshot.isPresent() ? replay(logPath, snapshot.get(), raw, replayed) : 0;
+            LOGGER.debug("Replayed {} journal entries for {}", entries, id);
+            return MemoryBank.fromRaw(meta.get(), raw, replayed);
+        });
+        LOGGER.debug("Loaded {} in {}ns", snapshotPath, result.getSecond());
+        return result.getFirst();
+    }
+
+    /**
+     * Apply every complete entry in a log onto a loaded snapshot. Keys touched by the log are decoded into
+     * <code>replayed</code>, and removed from <code>raw</code>. A log the snapshot was compacted from is replayed from
+     * where the snapshot left off; logs from any other generation are deleted instead.
+     *
+     * @param snapshot Loaded snapshot
+     * @return Number of entries applied
+     */
+    private static int replay(
+            Path logPath,
+            Snapshot snapshot,
+            Map<ResourceLocation, Dynamic<?>> raw,
+            Map<ResourceLocation, Map<BlockPos, Memory>> replayed) {
+        if (!Files.isRegularFile(logPath)) return 0;
+        var logGeneration = readGeneration(logPath);
+        long start;
+        if (logGeneration.isPresent() && logGeneration.getAsLong() == snapshot.generation()) {
+            start = LOG_HEADER_BYTES;
+        } else if (logGeneration.isPresent() && snapshot.base().isPresent() && logGeneration.getAsLong() == snapshot.base().get().generation()) {
+            LOGGER.warn("Replaying the end of journal {}, as it wasn't cut down after compaction", logPath);
+            start = snapshot.base().get().logLength();
+        } else {
+            LOGGER.warn("Discarding journal {}, as it doesn't match the current snapshot", logPath);
+            try {
+                Files.deleteIfExists(logPath);
+            } catch (IOException ex) {
+                LOGGER.error("Error deleting stale journal {}", logPath, ex);
+            }
+            return 0;
+        }
+
+        int entries = 0;
+        long validLength = start;
+        // only set when an entry is cut off or fails its checksum, rather than on any error reading the file
+        boolean incomplete = false;
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath)))) {
+            long fileLength = Files.size(logPath);
+            input.skipNBytes(start);
+            while (true) {
+                byte[] entry;
+                try {
+                    int length = input.readInt();
+                    if (length < 0 || length > fileLength - validLength) {
+                        incomplete = true;
+                        break;
+                    }
+                    entry = new byte[length];
+                    input.readFully(entry);
+                    var crc = new CRC32();
+                    crc.update(entry);
+                    if (input.readLong() != crc.getValue()) {
+                        incomplete = true;
+                        break;
+                    }
+                } catch (EOFException ex) {
+                    incomplete = true;
+                    break;
+                }
+
+                // entry was written in full, so skip it if it can't be read rather than losing everything after it
+                try {
+                    apply(new DataInputStream(new ByteArrayInputStream(entry)), raw, replayed);
+                    entries++;
+                } catch (IOException | ResourceLocationException ex) {
+                    LOGGER.error("Skipping journal entry at byte {} of {}, as it couldn't be decoded", validLength, logPath, ex);
+                }
+                validLength += Integer.BYTES + entry.length + Long.BYTES;
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Error reading journal {}", logPath, ex);
+        }
+
+        try {
+            if (incomplete && validLength < Files.size(logPath)) {
+                LOGGER.warn("Discarding incomplete journal entries in {} after {} bytes", logPath, validLength);
+                try (var channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Error truncating journal {}", logPath, ex);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns the generation a log was written on top of, or empty if it doesn't have a complete header.
+     */
+    private static OptionalLong readGeneration(Path logPath) {
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath)))) {
+            if (input.readInt() != LOG_MAGIC) return OptionalLong.empty();
+            return OptionalLong.of(input.readLong());
+        } catch (EOFException ex) {
+            return OptionalLong.empty();
+        } catch (IOException ex) {
+            LOGGER.error("Error reading journal header {}", logPath, ex);
+            return OptionalLong.empty();
+        }
+    }
+
+    private static void apply(
+            DataInput entry,
+            Map<ResourceLocation, Dynamic<?>> raw,
+            Map<ResourceLocation, Map<BlockPos, Memory>> replayed) throws IOException {
+        byte op = entry.readByte();
+        var key = new ResourceLocation(entry.readUTF());
+
+        if (op == OP_KEY_REMOVED) {
+            raw.remove(key);
+            replayed.remove(key);
+            return;
+        }
+
+        var memories = replayed.get(key);
+        if (memories == null) {
+            var rawKey = raw.remove(key);
+            memories = rawKey == null ? new HashMap<>() : MemoryBank.KEY_CODEC.parse(rawKey)
+                    .resultOrPartial(Util.prefix("Error decoding memory key " + key + ": ", LOGGER::error))
+                    .orElseGet(HashMap::new);
+            replayed.put(key, memories);
+        }
+
+        var pos = BlockPos.of(entry.readLong());
+        if (op == OP_CHANGED) {
+            var memory = Memory.CODEC.parse(NbtOps.INSTANCE, NbtIo.read(entry))
+                    .resultOrPartial(Util.prefix("Error decoding journal memory at " + pos + ": ", LOGGER::error));
+            if (memory.isPresent()) memories.put(pos, memory.get());
+            else memories.remove(pos);
+        } else {
+            memories.remove(pos);
+        }
+    }
+
+    @Override
+    public BooleanSupplier prepareSave(MemoryBank memoryBank) {
+        var snapshot = memoryBank.takeSnapshot();
+        var snapshotPath = Constants.STORAGE_DIR.resolve(snapshot.id() + extension());
+        var logPath = Constants.STORAGE_DIR.resolve(snapshot.id() + logExtension());
+
+        List<MemoryChangeJournal.Change> changes = memoryBank.getSavedVersion() == -1 ? null
+                : memoryBank.getJournal().since(memoryBank.getSavedVersion());
+
+        // first save, or too many changes since the last one to append
+        if (changes == null || !Files.isRegularFile(snapshotPath))
+            return () -> saveMetadata(snapshot.id(), snapshot.metadata()) && compact(snapshot, snapshotPath, logPath);
+
+        var entries = collectEntries(memoryBank, changes);
+        return () -> {
+            LOGGER.debug("Saving {}: {} journal entries", snapshot.id(), entries.size());
+            if (!saveMetadata(snapshot.id(), snapshot.metadata())) return false;
+            var appended = appendIfCurrent(snapshot.id(), logPath, entries);
+            // unknown snapshot, the log belongs to an older one, or appending failed
+            if (appended.isEmpty()) return compact(snapshot, snapshotPath, logPath);
+            if (appended.get().logLength() > COMPACTION_THRESHOLD_BYTES) compactLater(snapshot, snapshotPath, logPath, appended.get());
+            return true;
+        };
+    }
+
+    /**
+     * Resolve a list of changes into the entries to append, keeping only the latest change for each position. Looks up
+     * the current memory for each, so needs to be called on the render thread.
+     */
+    private static List<Entry> collectEntries(MemoryBank bank, List<MemoryChangeJournal.Change> changes) {
+        // later changes to a position replace earlier ones, but still come after any key removal in between
+        var latest = new LinkedHashMap<Entry.Target, Entry>();
+        for (MemoryChangeJournal.Change change : changes) {
+            var target = new Entry.Target(change.key(), change.pos());
+            Entry entry;
+            if (change.operation() == MemoryChangeJournal.Operation.KEY_REMOVED) {
+                entry = new Entry(target, OP_KEY_REMOVED, null);
+            } else {
+                var keyMemories = bank.getMemories(change.key());
+                var memory = keyMemories == null ? null : keyMemories.get(change.pos());
+                entry = memory == null ? new Entry(target, OP_REMOVED, null) : new Entry(target, OP_CHANGED, memory);
+            }
+            latest.remove(target);
+            latest.put(target, entry);
+        }
+        return List.copyOf(latest.values());
+    }
+
+    /**
+     * Whether entries can be added to a log for a given snapshot generation: either there's no log yet, or it was
+     * started on top of the same snapshot.
+     */
+    private static boolean canAppend(Path logPath, long generation) {
+        if (!Files.isRegularFile(logPath)) return true;
+        var logGeneration = readGeneration(logPath);
+        return logGeneration.isPresent() && logGeneration.getAsLong() == generation;
+    }
+
+    /**
+     * Append entries to a bank's log, if it belongs to the bank's current snapshot. If appending fails, the log is
+     * marked as unusable, so later saves write a full snapshot instead of appending on top of missing entries.
+     *
+     * @return Where the log stands after appending, or empty if it couldn't be appended to.
+     */
+    private Optional<Snapshot.Base> appendIfCurrent(String id, Path logPath, List<Entry> entries) {
+        synchronized (logLock) {
+            var generation = generations.get(id);
+            if (generation == null || !canAppend(logPath, generation)) return Optional.empty();
+            try {
+                append(logPath, generation, entries);
+                return Optional.of(new Snapshot.Base(generation, Files.size(logPath)));
+            } catch (IOException ex) {
+                LOGGER.error("Error appending to journal {}", logPath, ex);
+                generations.remove(id);
+                return Optional.empty();
+            }
+        }
+    }
+
+    private static void append(Path logPath, long generation, List<Entry> entries) throws IOException {
+        Files.createDirectories(logPath.getParent());
+        boolean newLog = !Files.isRegularFile(logPath);
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            if (newLog) {
+                output.writeInt(LOG_MAGIC);
+                output.writeLong(generation);
+            }
+            for (Entry entry : entries) {
+                var bytes = new ByteArrayOutputStream();
+                entry.write(new DataOutputStream(bytes));
+                var crc = new CRC32();
+                crc.update(bytes.toByteArray());
+
+                output.writeInt(bytes.size());
+                bytes.writeTo(output);
+                output.writeLong(crc.getValue());
+            }
+        }
+    }
+
+    /**
+     * Write a full snapshot with a new generation, then clear the log. If interrupted in between, the old log no longer
+     * matches the snapshot, so is discarded on the next load. Waits for any background compaction of the bank first.
+     */
+    private boolean compact(MemoryBankSnapshot snapshot, Path snapshotPath, Path logPath) {
+        awaitCompaction(snapshot.id());
+        var result = Timer.time(() -> {
+            var tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+            long generation = ThreadLocalRandom.current().nextLong();
+            if (!FileUtil.saveToNbt(new Snapshot(generation, snapshot.getRawMemories(NbtOps.INSTANCE), Optional.empty()), Snapshot.CODEC, tempPath))
+                return false;
+            synchronized (logLock) {
+                try {
+                    Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    generations.put(snapshot.id(), generation);
+                    Files.deleteIfExists(logPath);
+                    return true;
+                } catch (IOException ex) {
+                    LOGGER.error("Error replacing journal snapshot {}", snapshotPath, ex);
+                    return false;
+                }
+            }
+        });
+        LOGGER.debug("Compacted {} in {}ns", snapshotPath, result.getSecond());
+        return result.getFirst();
+    }
+
+    /**
+     * Start compacting a bank in the background, unless already in progress, so the save that filled the log isn't held
+     * up by writing a full snapshot.
+     *
+     * @param snapshot Bank as of the end of the log
+     * @param base     Generation and length of the log the snapshot matches
+     */
+    private void compactLater(MemoryBankSnapshot snapshot, Path snapshotPath, Path logPath, Snapshot.Base base) {
+        compactions.compute(snapshot.id(), (id, running) -> running != null && !running.isDone() ? running
+                : CompletableFuture.runAsync(() -> compactInBackground(snapshot, snapshotPath, logPath, base), Util.backgroundExecutor()));
+    }
+
+    /**
+     * Write a full snapshot, then swap it in and start a new log holding any entries appended while it was written.
+     * Skipped if the bank was given a new snapshot in the meantime.
+     */
+    private void compactInBackground(MemoryBankSnapshot snapshot, Path snapshotPath, Path logPath, Snapshot.Base base) {
+        var result = Timer.time(() -> {
+            var tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".compacting");
+            long generation = ThreadLocalRandom.current().nextLong();
+            if (!FileUtil.saveToNbt(new Snapshot(generation, snapshot.getRawMemories(NbtOps.INSTANCE), Optional.of(base)), Snapshot.CODEC, tempPath))
+                return false;
+            synchronized (logLock) {
+                try {
+                    if (!Long.valueOf(base.generation()).equals(generations.get(snapshot.id()))) {
+                        Files.deleteIfExists(tempPath);
+                        return false;
+                    }
+                    byte[] appended;
+                    try (var input = Files.newInputStream(logPath)) {
+                        input.skipNBytes(base.logLength());
+                        appended = input.readAllBytes();
+                    }
+
+                    Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    generations.put(snapshot.id(), generation);
+                    if (appended.length == 0) {
+                        Files.deleteIfExists(logPath);
+                    } else {
+                        var tempLogPath = logPath.resolveSibling(logPath.getFileName() + ".tmp");
+                        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempLogPath)))) {
+                            output.writeInt(LOG_MAGIC);
+                            output.writeLong(generation);
+                            output.write(appended);
+                        }
+                        Files.move(tempLogPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    return true;
+                } catch (IOException ex) {
+                    // if the snapshot was swapped in, the old log no longer matches it, so the next save compacts again
+                    LOGGER.error("Error compacting journal {}", logPath, ex);
+                    return false;
+                }
+            }
+        });
+        LOGGER.debug("Compacted {} in the background in {}ns", snapshotPath, result.getSecond());
+    }
+
+    private void awaitCompaction(String id) {
+        var running = compactions.remove(id);
+        if (running != null) running.join();
+    }
+
+    /**
+     * @param generation ID for logs written on top of this snapshot
+     * @param memories   Every key in serialized form, as decoded by {@link MemoryBank#RAW_MEMORIES_CODEC}
+     * @param base       Log this snapshot was compacted from in the background, if it was
+     */
+    @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+    private record Snapshot(long generation, Map<ResourceLocation, Dynamic<?>> memories, Optional<Base> base) {
+        private static final Codec<Snapshot> CODEC = RecordCodecBuilder.create(instance -> instance.group(
+                Codec.LONG.fieldOf("generation").forGetter(Snapshot::generation),
+                MemoryBank.RAW_MEMORIES_CODEC.fieldOf("memories").forGetter(Snapshot::memories),
+                Base.CODEC.optionalFieldOf("base").forGetter(Snapshot::base)
+        ).apply(instance, Snapshot::new));
+
+        /**
+         * @param generation Generation of the log
+         * @param logLength  Length of the log in bytes, up to the end of the last entry included
+         */
+        private record Base(long generation, long logLength) {
+            private static final Codec<Base> CODEC = RecordCodecBuilder.create(instance -> instance.group(
+                    Codec.LONG.fieldOf("generation").forGetter(Base::generation),
+                    Codec.LONG.fieldOf("logLength").forGetter(Base::logLength)
+            ).apply(instance, Base::new));
+        }
+    }
+
+    private record Entry(Target target, byte op, @Nullable Memory memory) {
+        private void write(DataOutput output) throws IOException {
+            output.writeByte(op);
+            output.writeUTF(target.key().toString());
+            if (op == OP_KEY_REMOVED) return;
+
+            //noinspection DataFlowIssue
+            output.writeLong(target.pos().asLong());
+            if (op == OP_CHANGED) {
+                var tag = Memory.CODEC.encodeStart(NbtOps.INSTANCE, memory)
+                        .resultOrPartial(Util.prefix("Error encoding journal memory at " + target.pos() + ": ", LOGGER::error));
+                // an empty tag fails to decode, so the position is removed on replay
+                NbtIo.write(tag.orElse(null) instanceof CompoundTag compound ? compound : new CompoundTag(), output);
+            }
+        }
+
+        private record Target(ResourceLocation key, @Nullable BlockPos pos) {}
+    }
+}
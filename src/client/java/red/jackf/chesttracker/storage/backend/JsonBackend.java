@@ -1,18 +1,21 @@
 package red.jackf.chesttracker.storage.backend;
 
-import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.mojang.serialization.Dynamic;
 import com.mojang.serialization.JsonOps;
 import net.minecraft.Util;
-import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceLocation;
-import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 import red.jackf.chesttracker.ChestTracker;
 import red.jackf.chesttracker.memory.Memory;
 import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.memory.MemoryBankSnapshot;
 import red.jackf.chesttracker.memory.metadata.Metadata;
 import red.jackf.chesttracker.util.Constants;
 import red.jackf.chesttracker.util.FileUtil;
@@ -23,9 +26,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.BooleanSupplier;
 
 public class JsonBackend extends FileBasedBackend {
     private static final Logger LOGGER = LogManager.getLogger(ChestTracker.class.getCanonicalName() + "/JSON");
@@ -43,52 +45,125 @@ public class JsonBackend extends FileBasedBackend {
         Path dataPath = Constants.STORAGE_DIR.resolve(id + extension());
         var result = Timer.time(() -> {
             if (Files.isRegularFile(dataPath)) {
-                try {
-                    var str = FileUtils.readFileToString(dataPath.toFile(), StandardCharsets.UTF_8);
-                    var json = FileUtil.gson().fromJson(str, JsonElement.class);
-                    var loaded = MemoryBank.MEMORIES_CODEC.decode(JsonOps.INSTANCE, json).get();
-                    if (loaded.right().isPresent()) {
-                        throw new IOException("Invalid Memories JSON: %s".formatted(loaded.right().get()));
-                    } else {
-                        //noinspection OptionalGetWithoutIsPresent
-                        return loaded.left().get().getFirst();
-                    }
-                } catch (JsonParseException | IOException ex) {
+                try (var reader = FileUtil.gson().newJsonReader(Files.newBufferedReader(dataPath, StandardCharsets.UTF_8))) {
+                    return readMemories(reader);
+                } catch (JsonParseException | IOException | IllegalStateException ex) {
                     LOGGER.error("Error loading %s".formatted(dataPath), ex);
                     FileUtil.tryMove(dataPath, dataPath.resolveSibling(dataPath.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
                 }
             }
             return null;
         });
-        Map<ResourceLocation, Map<BlockPos, Memory>> data = result.getFirst() == null ? new HashMap<>() : result.getFirst();
+        Map<ResourceLocation, Dynamic<?>> data = result.getFirst() == null ? new HashMap<>() : result.getFirst();
         LOGGER.debug("Loaded {} in {}ns", dataPath, result.getSecond());
-        return new MemoryBank(metadata.get(), data);
+        return MemoryBank.fromRaw(metadata.get(), data);
+    }
+
+    /**
+     * Read each key's memories as a JSON tree, one key at a time, without decoding them. Keys are decoded by the memory
+     * bank on first use.
+     */
+    private static Map<ResourceLocation, Dynamic<?>> readMemories(JsonReader reader) throws IOException {
+        var memories = new HashMap<ResourceLocation, Dynamic<?>>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            var key = ResourceLocation.tryParse(reader.nextName());
+            if (key == null) {
+                LOGGER.error("Invalid memory key at {}", reader.getPath());
+                reader.skipValue();
+                continue;
+            }
+            var keyMemories = JsonParser.parseReader(reader);
+            if (!keyMemories.isJsonObject()) {
+                LOGGER.error("Invalid memories for {}: not an object", key);
+                continue;
+            }
+            memories.put(key, new Dynamic<>(JsonOps.INSTANCE, keyMemories));
+        }
+        reader.endObject();
+        return memories;
     }
 
     @Override
-    public boolean save(MemoryBank memoryBank) {
-        LOGGER.debug("Saving {}", memoryBank.getId());
+    protected OptionalInt countMemories(String id) {
+        Path dataPath = Constants.STORAGE_DIR.resolve(id + extension());
+        if (!Files.isRegularFile(dataPath)) return OptionalInt.empty();
+        try (var reader = FileUtil.gson().newJsonReader(Files.newBufferedReader(dataPath, StandardCharsets.UTF_8))) {
+            int count = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                reader.nextName();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    reader.nextName();
+                    reader.skipValue();
+                    count++;
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+            return OptionalInt.of(count);
+        } catch (JsonParseException | IOException | IllegalStateException ex) {
+            LOGGER.error("Error counting memories in {}", dataPath, ex);
+            return OptionalInt.empty();
+        }
+    }
 
-        memoryBank.getMetadata().updateModified();
-        boolean metaSaveSuccess = saveMetadata(memoryBank.getId(), memoryBank.getMetadata());
-        if (!metaSaveSuccess) return false;
+    @Override
+    public BooleanSupplier prepareSave(MemoryBank memoryBank) {
+        var snapshot = memoryBank.takeSnapshot();
+        Path path = Constants.STORAGE_DIR.resolve(snapshot.id() + extension());
+        boolean memoriesChanged = memoryBank.hasUnsavedMemories();
+        return () -> {
+            LOGGER.debug("Saving {}", snapshot.id());
 
-        Path path = Constants.STORAGE_DIR.resolve(memoryBank.getId() + extension());
+            boolean metaSaveSuccess = saveMetadata(snapshot.id(), snapshot.metadata());
+            if (!metaSaveSuccess) return false;
 
-        try {
-            Files.createDirectories(path.getParent());
-            Optional<JsonElement> memoryJson = MemoryBank.MEMORIES_CODEC.encodeStart(JsonOps.INSTANCE, memoryBank.getMemories())
-                    .resultOrPartial(Util.prefix("Error encoding memories", LOGGER::error));
-            if (memoryJson.isPresent()) {
-                FileUtils.write(path.toFile(), FileUtil.gson().toJson(memoryJson.get()), StandardCharsets.UTF_8);
+            if (!memoriesChanged && Files.isRegularFile(path)) {
+                LOGGER.debug("Skipping unchanged memories for {}", snapshot.id());
                 return true;
-            } else {
-                LOGGER.error("Unknown error encoding memories");
             }
-        } catch (IOException ex) {
-            LOGGER.error("Error saving memories", ex);
-        }
 
-        return false;
+            var tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(path.getParent());
+                try (var writer = FileUtil.gson().newJsonWriter(Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8))) {
+                    writeMemories(writer, snapshot);
+                }
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (JsonIOException | IOException ex) {
+                LOGGER.error("Error saving memories", ex);
+            }
+
+            return false;
+        };
+    }
+
+    /**
+     * Write memories one at a time, so only a single memory's JSON tree is held at once. Keys that were never decoded
+     * are converted and written whole.
+     */
+    private static void writeMemories(JsonWriter writer, MemoryBankSnapshot snapshot) throws IOException {
+        writer.beginObject();
+        for (var entry : snapshot.undecoded().entrySet()) {
+            writer.name(entry.getKey().toString());
+            FileUtil.gson().toJson(entry.getValue().convert(JsonOps.INSTANCE).getValue(), writer);
+        }
+        for (var key : snapshot.memories().entrySet()) {
+            writer.name(key.getKey().toString());
+            writer.beginObject();
+            for (var entry : key.getValue().entrySet()) {
+                var pos = entry.getKey();
+                var memory = Memory.CODEC.encodeStart(JsonOps.INSTANCE, entry.getValue())
+                        .resultOrPartial(Util.prefix("Error encoding memory at " + pos + " in " + key.getKey() + ": ", LOGGER::error));
+                if (memory.isEmpty()) continue;
+                writer.name(pos.getX() + "," + pos.getY() + "," + pos.getZ());
+                FileUtil.gson().toJson(memory.get(), writer);
+            }
+            writer.endObject();
+        }
+        writer.endObject();
     }
 }
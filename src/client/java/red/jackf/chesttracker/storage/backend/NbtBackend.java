@@ -1,43 +1,222 @@
 package red.jackf.chesttracker.storage.backend;
 
+import com.google.gson.JsonParseException;
+import net.minecraft.Util;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.resources.ResourceLocation;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.config.ChestTrackerConfig;
 import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.memory.metadata.Metadata;
 import red.jackf.chesttracker.util.Constants;
 import red.jackf.chesttracker.util.FileUtil;
 import red.jackf.chesttracker.util.Timer;
 
-import java.util.HashMap;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
 
+/**
+ * Stores memory banks as an NBT compound of their memories, behind an uncompressed {@link BinaryFormat.Header} holding
+ * the bank's metadata and the number of memories in each key. Listing banks only reads the header, loading is a single
+ * sequential read, and a metadata change rewrites the header and copies the memories across as they are.
+ * <p>
+ * Files from before headers were added are plain NBT, with metadata in a separate file. These are still read, and are
+ * upgraded on their next save.
+ */
 public class NbtBackend extends FileBasedBackend {
     private static final Logger LOGGER = LogManager.getLogger(ChestTracker.class.getCanonicalName() + "/NBT");
 
+    // banks whose file was last read or written with a header, so a metadata change only needs the header rewritten
+    private final Set<String> withHeader = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public String extension() {
+        return ".nbt";
+    }
+
+    // metadata is in the data file itself
+    @Override
+    protected String metadataExtension() {
+        return extension();
+    }
+
+    private Path getPath(String id) {
+        return Constants.STORAGE_DIR.resolve(id + extension());
+    }
+
+    @Override
+    protected List<Path> getRelevantPaths(String id) {
+        return List.of(getPath(id), getLegacyMetadataPath(id));
+    }
+
+    @Override
+    public void delete(String id) {
+        withHeader.remove(id);
+        super.delete(id);
+    }
+
+    @Override
+    public Optional<Metadata> loadMetadata(String id) {
+        var path = getPath(id);
+        if (!Files.isRegularFile(path)) return Optional.empty();
+        try (var input = new BufferedInputStream(Files.newInputStream(path))) {
+            if (!BinaryFormat.hasHeader(input)) return loadMetadata(id, getLegacyMetadataPath(id));
+            var header = BinaryFormat.readHeader(new DataInputStream(input));
+            memoryCounts.put(id, header.getMemoryCount());
+            return decodeMetadata(id, header.metadata());
+        } catch (JsonParseException | IOException ex) {
+            // only used for listing, so leave the file for load() to recover what it can
+            LOGGER.error("Error reading header of {}", path, ex);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    protected OptionalInt countMemories(String id) {
+        var path = getPath(id);
+        if (!Files.isRegularFile(path)) return OptionalInt.empty();
+        try (var input = new BufferedInputStream(Files.newInputStream(path))) {
+            if (BinaryFormat.hasHeader(input)) return OptionalInt.of(BinaryFormat.readHeader(new DataInputStream(input)).getMemoryCount());
+            var memories = FileUtil.readNbt(input);
+            int count = 0;
+            for (String key : memories.getAllKeys()) count += memories.getCompound(key).size();
+            return OptionalInt.of(count);
+        } catch (JsonParseException | IOException ex) {
+            LOGGER.error("Error counting memories in {}", path, ex);
+            return OptionalInt.empty();
+        }
+    }
+
     @Override
     public @Nullable MemoryBank load(String id) {
-        var meta = loadMetadata(id);
-        if (meta.isEmpty()) return null;
-        var path = Constants.STORAGE_DIR.resolve(id + extension());
-        var result = Timer.time(() -> FileUtil.loadFromNbt(MemoryBank.MEMORIES_CODEC, path));
-        if (result.getFirst().isPresent()) {
-            LOGGER.debug("Loaded {} in {}ns", path, result.getSecond());
-            return new MemoryBank(meta.get(), result.getFirst().get());
-        } else {
-            return new MemoryBank(meta.get(), new HashMap<>());
+        var path = getPath(id);
+        if (!Files.isRegularFile(path))
+            return loadMetadata(id, getLegacyMetadataPath(id)).map(meta -> new MemoryBank(meta, new HashMap<>())).orElse(null);
+
+        var result = Timer.time(() -> read(id, path));
+        LOGGER.debug("Loaded {} in {}ns", path, result.getSecond());
+        return result.getFirst();
+    }
+
+    @Nullable
+    private MemoryBank read(String id, Path path) {
+        Optional<Metadata> meta = Optional.empty();
+        try (var input = new BufferedInputStream(Files.newInputStream(path))) {
+            boolean hasHeader = BinaryFormat.hasHeader(input);
+            if (hasHeader) {
+                var header = BinaryFormat.readHeader(new DataInputStream(input));
+                memoryCounts.put(id, header.getMemoryCount());
+                meta = decodeMetadata(id, header.metadata());
+            } else {
+                meta = loadMetadata(id, getLegacyMetadataPath(id));
+            }
+            if (meta.isEmpty()) return null;
+
+            // the memories follow straight after the header
+            var raw = MemoryBank.RAW_MEMORIES_CODEC.parse(NbtOps.INSTANCE, FileUtil.readNbt(input));
+            if (raw.error().isPresent()) throw new IOException("Invalid NBT: %s".formatted(raw.error().get().message()));
+            if (hasHeader) withHeader.add(id);
+            else withHeader.remove(id);
+            return MemoryBank.fromRaw(meta.get(), raw.result().orElseThrow());
+        } catch (JsonParseException | IOException ex) {
+            LOGGER.error("Error loading {}", path, ex);
+            FileUtil.tryMove(path, path.resolveSibling(path.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+            withHeader.remove(id);
+            return meta.map(metadata -> new MemoryBank(metadata, new HashMap<>())).orElse(null);
         }
     }
 
     @Override
-    public boolean save(MemoryBank memoryBank) {
-        LOGGER.debug("Saving {}", memoryBank.getId());
-        memoryBank.getMetadata().updateModified();
-        if (!saveMetadata(memoryBank.getId(), memoryBank.getMetadata())) return false;
-        return FileUtil.saveToNbt(memoryBank.getMemories(), MemoryBank.MEMORIES_CODEC, Constants.STORAGE_DIR.resolve(memoryBank.getId() + extension()));
+    public BooleanSupplier prepareSave(MemoryBank memoryBank) {
+        var snapshot = memoryBank.takeSnapshot();
+        var path = getPath(snapshot.id());
+        boolean memoriesChanged = memoryBank.hasUnsavedMemories();
+        return () -> {
+            LOGGER.debug("Saving {}", snapshot.id());
+            var metaJson = encodeMetadata(snapshot.metadata());
+            if (metaJson.isEmpty()) return false;
+
+            var header = new BinaryFormat.Header(metaJson.get(), snapshot.getKeyCounts());
+            if (!memoriesChanged && withHeader.contains(snapshot.id()) && Files.isRegularFile(path)) {
+                if (metaJson.get().equals(lastMetadata.get(snapshot.id()))) {
+                    LOGGER.debug("Skipping unchanged memory bank {}", snapshot.id());
+                    return true;
+                }
+                return replaceHeader(snapshot.id(), path, header);
+            }
+
+            var memories = MemoryBank.RAW_MEMORIES_CODEC.encodeStart(NbtOps.INSTANCE, snapshot.getRawMemories(NbtOps.INSTANCE))
+                    .resultOrPartial(Util.prefix("Error encoding memories for " + snapshot.id() + ": ", LOGGER::error));
+            if (memories.isEmpty() || !(memories.get() instanceof CompoundTag compound)) return false;
+            return write(snapshot.id(), path, header, compound);
+        };
     }
 
+    /**
+     * Replace the metadata in a memory bank's header, copying the memories across as they are. Files without a header
+     * are upgraded, which reads and rewrites the memories once.
+     */
     @Override
-    public String extension() {
-        return ".nbt";
+    public boolean saveMetadata(String id, Metadata metadata) {
+        var path = getPath(id);
+        var metaJson = encodeMetadata(metadata);
+        if (metaJson.isEmpty()) return false;
+        if (!Files.isRegularFile(path)) return write(id, path, new BinaryFormat.Header(metaJson.get(), Map.of()), new CompoundTag());
+
+        BinaryFormat.Header existing = null;
+        CompoundTag memories = null;
+        try (var input = new BufferedInputStream(Files.newInputStream(path))) {
+            if (BinaryFormat.hasHeader(input)) existing = BinaryFormat.readHeader(new DataInputStream(input));
+            else memories = FileUtil.readNbt(input);
+        } catch (JsonParseException | IOException ex) {
+            LOGGER.error("Error reading {}", path, ex);
+            return false;
+        }
+
+        if (existing != null) {
+            if (metaJson.get().equals(lastMetadata.get(id))) return true;
+            return replaceHeader(id, path, new BinaryFormat.Header(metaJson.get(), existing.counts()));
+        }
+
+        var counts = new HashMap<ResourceLocation, Integer>();
+        for (String key : memories.getAllKeys()) {
+            var parsed = ResourceLocation.tryParse(key);
+            if (parsed != null) counts.put(parsed, memories.getCompound(key).size());
+        }
+        return write(id, path, new BinaryFormat.Header(metaJson.get(), counts), memories);
+    }
+
+    private boolean replaceHeader(String id, Path path, BinaryFormat.Header header) {
+        if (!rewriteHeader(path, header)) return false;
+        finishSave(id, header);
+        return true;
+    }
+
+    private boolean write(String id, Path path, BinaryFormat.Header header, CompoundTag memories) {
+        boolean success = writeVia(path, output -> {
+            BinaryFormat.writeHeader(new DataOutputStream(output), header);
+            FileUtil.writeNbt(memories, output, ChestTrackerConfig.INSTANCE.instance().storage.nbtCompression);
+        });
+        if (success) finishSave(id, header);
+        return success;
+    }
+
+    private void finishSave(String id, BinaryFormat.Header header) {
+        lastMetadata.put(id, header.metadata());
+        memoryCounts.put(id, header.getMemoryCount());
+        withHeader.add(id);
+        deleteLegacyMetadata(id);
     }
 }
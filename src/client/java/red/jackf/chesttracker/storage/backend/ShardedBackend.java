@@ -0,0 +1,259 @@
+package red.jackf.chesttracker.storage.backend;
+
+import com.mojang.serialization.Codec;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.Util;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.ChunkPos;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.memory.Memory;
+import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.memory.MemoryBankSnapshot;
+import red.jackf.chesttracker.memory.MemoryChangeJournal;
+import red.jackf.chesttracker.util.Constants;
+import red.jackf.chesttracker.util.FileUtil;
+import red.jackf.chesttracker.util.ModCodecs;
+import red.jackf.chesttracker.util.Timer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Stores a memory bank as many small NBT files under <code>STORAGE_DIR/&lt;id&gt;/</code>, one for each memory key and
+ * {@link #REGION_SIZE}-block square region, alongside a manifest of which exist. Saving only rewrites regions with
+ * changes since the last save, and loading reads every region in parallel.
+ */
+public class ShardedBackend extends FileBasedBackend {
+    private static final Logger LOGGER = LogManager.getLogger(ChestTracker.class.getCanonicalName() + "/Sharded");
+    private static final String EXTENSION = ".sharded";
+    private static final int REGION_SHIFT = 9;
+    private static final int REGION_SIZE = 1 << REGION_SHIFT;
+
+    // memory key -> packed region coordinates, as ChunkPos longs
+    private static final Codec<Map<ResourceLocation, List<Long>>> MANIFEST_CODEC = ModCodecs.makeMutableMap(
+            Codec.unboundedMap(ResourceLocation.CODEC, Codec.LONG.listOf()));
+
+    // manifest of each bank as last loaded or saved. replaced by load() on the loading thread, which runs after any
+    // pending saves have been flushed and before the bank can be saved again; otherwise only used on the save thread
+    private final Map<String, Map<ResourceLocation, LongSet>> manifests = new ConcurrentHashMap<>();
+
+    @Override
+    public String extension() {
+        return EXTENSION;
+    }
+
+    private static Path getDirectory(String id) {
+        return Constants.STORAGE_DIR.resolve(id);
+    }
+
+    /**
+     * Returns whether a directory holds a sharded memory bank's files, so other backends can skip it when searching for
+     * their own.
+     */
+    static boolean isBankDirectory(Path directory) {
+        return Files.isRegularFile(directory.resolveSibling(directory.getFileName() + EXTENSION + ".meta"));
+    }
+
+    private static Path getManifestPath(String id) {
+        return getDirectory(id).resolve("manifest.nbt");
+    }
+
+    private static Path getShardPath(String id, ResourceLocation key, long region) {
+        return getDirectory(id).resolve(key.getNamespace())
+                               .resolve(key.getPath())
+                               .resolve("r.%d.%d.nbt".formatted(ChunkPos.getX(region), ChunkPos.getZ(region)));
+    }
+
+    private static long getRegion(BlockPos pos) {
+        return ChunkPos.asLong(pos.getX() >> REGION_SHIFT, pos.getZ() >> REGION_SHIFT);
+    }
+
+    @Override
+    protected List<Path> getRelevantPaths(String id) {
+        return List.of(Constants.STORAGE_DIR.resolve(id + metadataExtension()));
+    }
+
+    @Override
+    public void delete(String id) {
+        super.delete(id);
+        manifests.remove(id);
+        var directory = getDirectory(id);
+        if (Files.isDirectory(directory)) {
+            try {
+                FileUtils.deleteDirectory(directory.toFile());
+                LOGGER.info("Deleted {}", directory);
+            } catch (IOException ex) {
+                LOGGER.error("Error deleting {}", directory, ex);
+            }
+        }
+    }
+
+    @Override
+    protected long getSize(String id) {
+        var directory = getDirectory(id);
+        return super.getSize(id) + (Files.isDirectory(directory) ? FileUtils.sizeOfDirectory(directory.toFile()) : 0L);
+    }
+
+    @Override
+    public @Nullable MemoryBank load(String id) {
+        var meta = loadMetadata(id);
+        if (meta.isEmpty()) return null;
+
+        var manifest = new HashMap<ResourceLocation, LongSet>();
+        FileUtil.loadFromNbt(MANIFEST_CODEC, getManifestPath(id))
+                .ifPresent(loaded -> loaded.forEach((key, regions) -> manifest.put(key, new LongOpenHashSet(regions))));
+
+        var result = Timer.time(() -> {
+            // read and decode every shard on background threads, then merge into their keys
+            var futures = new ArrayList<CompletableFuture<Map.Entry<ResourceLocation, Map<BlockPos, Memory>>>>();
+            manifest.forEach((key, regions) -> regions.forEach((long region) -> futures.add(CompletableFuture.supplyAsync(
+                    () -> Map.entry(key, FileUtil.loadFromNbt(MemoryBank.KEY_CODEC, getShardPath(id, key, region)).orElseGet(HashMap::new)),
+                    Util.backgroundExecutor()))));
+
+            var memories = new HashMap<ResourceLocation, Map<BlockPos, Memory>>();
+            for (var future : futures) {
+                var shard = future.join();
+                memories.computeIfAbsent(shard.getKey(), k -> new HashMap<>()).putAll(shard.getValue());
+            }
+            return Map.entry(futures.size(), memories);
+        });
+        LOGGER.debug("Loaded {} shards for {} in {}ns", result.getFirst().getKey(), id, result.getSecond());
+
+        manifests.put(id, manifest);
+        return new MemoryBank(meta.get(), result.getFirst().getValue());
+    }
+
+    @Override
+    public BooleanSupplier prepareSave(MemoryBank memoryBank) {
+        var snapshot = memoryBank.takeSnapshot();
+
+        List<MemoryChangeJournal.Change> changes = memoryBank.getSavedVersion() == -1 || !manifests.containsKey(snapshot.id()) ? null
+                : memoryBank.getJournal().since(memoryBank.getSavedVersion());
+
+        // first save, or too many changes since the last save to know what's dirty
+        if (changes == null) return () -> saveMetadata(snapshot.id(), snapshot.metadata()) && saveAll(snapshot);
+
+        var removedKeys = new HashSet<ResourceLocation>();
+        var dirty = new HashMap<ResourceLocation, LongSet>();
+        for (MemoryChangeJournal.Change change : changes) {
+            if (change.pos() == null) removedKeys.add(change.key());
+            else dirty.computeIfAbsent(change.key(), k -> new LongOpenHashSet()).add(getRegion(change.pos()));
+        }
+
+        return () -> {
+            LOGGER.debug("Saving {}: {} removed keys, {} dirty keys", snapshot.id(), removedKeys.size(), dirty.size());
+            if (!saveMetadata(snapshot.id(), snapshot.metadata())) return false;
+            var manifest = manifests.computeIfAbsent(snapshot.id(), id -> new HashMap<>());
+
+            boolean success = true;
+            for (ResourceLocation key : removedKeys) {
+                var regions = manifest.remove(key);
+                if (regions != null)
+                    for (long region : regions) success &= deleteShard(getShardPath(snapshot.id(), key, region));
+            }
+
+            for (var entry : dirty.entrySet())
+                success &= saveShards(snapshot, manifest, entry.getKey(), entry.getValue());
+
+            return saveManifest(snapshot.id(), manifest) && success;
+        };
+    }
+
+    /**
+     * Rewrite every shard in a bank, and delete any left over from before.
+     */
+    private boolean saveAll(MemoryBankSnapshot snapshot) {
+        var oldManifest = manifests.getOrDefault(snapshot.id(), Collections.emptyMap());
+        var manifest = new HashMap<ResourceLocation, LongSet>();
+        boolean success = true;
+        for (ResourceLocation key : snapshot.getKeys())
+            success &= saveShards(snapshot, manifest, key, null);
+
+        // clean up stale shards
+        for (var entry : oldManifest.entrySet()) {
+            var current = manifest.getOrDefault(entry.getKey(), LongSet.of());
+            for (long region : entry.getValue())
+                if (!current.contains(region)) success &= deleteShard(getShardPath(snapshot.id(), entry.getKey(), region));
+        }
+
+        manifests.put(snapshot.id(), manifest);
+        return saveManifest(snapshot.id(), manifest) && success;
+    }
+
+    /**
+     * Write shards for one key, updating the manifest to match.
+     *
+     * @param regions Regions to write, or null for all regions in the key.
+     */
+    private boolean saveShards(
+            MemoryBankSnapshot snapshot,
+            Map<ResourceLocation, LongSet> manifest,
+            ResourceLocation key,
+            @Nullable LongSet regions) {
+        var byRegion = new HashMap<Long, Map<BlockPos, Memory>>();
+        var memories = getMemories(snapshot, key);
+        memories.forEach((pos, memory) -> {
+            long region = getRegion(pos);
+            if (regions == null || regions.contains(region))
+                byRegion.computeIfAbsent(region, r -> new HashMap<>()).put(pos, memory);
+        });
+
+        var keyRegions = manifest.computeIfAbsent(key, k -> new LongOpenHashSet());
+        boolean success = true;
+
+        // regions that were dirty but are now empty
+        if (regions != null) {
+            for (long region : regions) {
+                if (!byRegion.containsKey(region)) {
+                    keyRegions.remove(region);
+                    success &= deleteShard(getShardPath(snapshot.id(), key, region));
+                }
+            }
+        }
+
+        for (var entry : byRegion.entrySet()) {
+            keyRegions.add((long) entry.getKey());
+            success &= FileUtil.saveToNbt(entry.getValue(), MemoryBank.KEY_CODEC, getShardPath(snapshot.id(), key, entry.getKey()));
+        }
+
+        if (keyRegions.isEmpty()) manifest.remove(key);
+        return success;
+    }
+
+    private static Map<BlockPos, Memory> getMemories(MemoryBankSnapshot snapshot, ResourceLocation key) {
+        var memories = snapshot.getMemories(key);
+        if (memories != null) return memories;
+        var raw = snapshot.undecoded().get(key);
+        if (raw == null) return Collections.emptyMap();
+        return MemoryBank.KEY_CODEC.parse(raw)
+                .resultOrPartial(Util.prefix("Error decoding memory key " + key + ": ", LOGGER::error))
+                .orElseGet(HashMap::new);
+    }
+
+    private boolean saveManifest(String id, Map<ResourceLocation, LongSet> manifest) {
+        var serialized = new HashMap<ResourceLocation, List<Long>>();
+        manifest.forEach((key, regions) -> serialized.put(key, new ArrayList<>(regions)));
+        return FileUtil.saveToNbt(serialized, MANIFEST_CODEC, getManifestPath(id));
+    }
+
+    private static boolean deleteShard(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            return true;
+        } catch (IOException ex) {
+            LOGGER.error("Error deleting shard {}", path, ex);
+            return false;
+        }
+    }
+}
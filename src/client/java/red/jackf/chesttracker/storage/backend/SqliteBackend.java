@@ -0,0 +1,603 @@
+package red.jackf.chesttracker.storage.backend;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.ResourceLocationException;
+import net.minecraft.Util;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.Mth;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.phys.Vec3;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.sqlite.SQLiteConfig;
+import red.jackf.chesttracker.ChestTracker;
+import red.jackf.chesttracker.memory.Memory;
+import red.jackf.chesttracker.memory.MemoryBank;
+import red.jackf.chesttracker.memory.MemoryBankSnapshot;
+import red.jackf.chesttracker.memory.MemoryChangeJournal;
+import red.jackf.chesttracker.memory.metadata.Metadata;
+import red.jackf.chesttracker.util.Constants;
+import red.jackf.chesttracker.util.Timer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Stores each memory bank as an embedded SQLite database, with a row for each memory and a child table of the items in
+ * each, indexed by item and position. Saving applies just the memories changed since the last save as upserts in a
+ * single transaction, so an interrupted save leaves the last one intact.
+ * <p>
+ * The item table can answer which memories in a key held an item near a point without decoding the bank; see
+ * {@link #findItemPositions(String, ResourceLocation, Set, Vec3, int)}.
+ * <p>
+ * Each bank's connection is kept open after first use, so the schema is only checked once. Connections
+ * are used by one thread at a time, and a save holds its connection until committed, so queries never see half a save.
+ */
+public class SqliteBackend extends FileBasedBackend {
+    private static final Logger LOGGER = LogManager.getLogger(ChestTracker.class.getCanonicalName() + "/SQLite");
+    private static final int SCHEMA_VERSION = 1;
+    // more than this and the query is slower than checking the in-memory index anyway
+    private static final int MAX_QUERY_ITEMS = 256;
+
+    // banks whose database matches their last load or successful save this session, so changes can be applied on top
+    private final Set<String> known = ConcurrentHashMap.newKeySet();
+    // open connection to each bank's database, guarded by this backend
+    private final Map<String, Connection> connections = new HashMap<>();
+
+    @Override
+    public String extension() {
+        return ".sqlite";
+    }
+
+    // metadata is in the database itself
+    @Override
+    protected String metadataExtension() {
+        return extension();
+    }
+
+    private static Path getPath(String id) {
+        return Constants.STORAGE_DIR.resolve(id + ".sqlite");
+    }
+
+    @Override
+    protected List<Path> getRelevantPaths(String id) {
+        var path = getPath(id);
+        return List.of(path, path.resolveSibling(path.getFileName() + "-wal"), path.resolveSibling(path.getFileName() + "-shm"));
+    }
+
+    @Override
+    public void delete(String id) {
+        known.remove(id);
+        close(id);
+        super.delete(id);
+    }
+
+    /**
+     * Returns the open connection to a bank's database, opening it if needed. Callers should synchronize on it.
+     */
+    private synchronized Connection getConnection(String id) throws SQLException {
+        var connection = connections.get(id);
+        if (connection == null) {
+            connection = connect(getPath(id));
+            connections.put(id, connection);
+        }
+        return connection;
+    }
+
+    private void close(String id) {
+        Connection connection;
+        synchronized (this) {
+            connection = connections.remove(id);
+        }
+        if (connection == null) return;
+        synchronized (connection) {
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                LOGGER.error("Error closing {}", getPath(id), ex);
+            }
+        }
+    }
+
+    private static Connection connect(Path path) throws SQLException {
+        var config = new SQLiteConfig();
+        config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        var connection = config.createConnection("jdbc:sqlite:" + path.toAbsolutePath());
+        try {
+            createTables(connection);
+        } catch (SQLException ex) {
+            connection.close();
+            throw ex;
+        }
+        return connection;
+    }
+
+    private static void createTables(Connection connection) throws SQLException {
+        try (var statement = connection.createStatement()) {
+            int version;
+            try (var results = statement.executeQuery("PRAGMA user_version")) {
+                version = results.next() ? results.getInt(1) : 0;
+            }
+            if (version == SCHEMA_VERSION) return;
+            if (version > SCHEMA_VERSION)
+                throw new SQLException("Database is from a newer version: schema " + version + ", expected " + SCHEMA_VERSION);
+
+            statement.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS metadata (
+                        id INTEGER PRIMARY KEY CHECK (id = 0),
+                        json TEXT NOT NULL
+                    )""");
+            statement.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS memories (
+                        key TEXT NOT NULL,
+                        pos INTEGER NOT NULL,
+                        container TEXT,
+                        loaded_timestamp INTEGER NOT NULL,
+                        world_timestamp INTEGER NOT NULL,
+                        real_timestamp INTEGER NOT NULL,
+                        data BLOB NOT NULL,
+                        PRIMARY KEY (key, pos)
+                    ) WITHOUT ROWID""");
+            statement.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS items (
+                        key TEXT NOT NULL,
+                        pos INTEGER NOT NULL,
+                        item TEXT NOT NULL,
+                        count INTEGER NOT NULL,
+                        x INTEGER NOT NULL,
+                        y INTEGER NOT NULL,
+                        z INTEGER NOT NULL,
+                        PRIMARY KEY (key, pos, item)
+                    ) WITHOUT ROWID""");
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS items_by_item ON items (key, item, x, z, y)");
+            statement.executeUpdate("PRAGMA user_version = " + SCHEMA_VERSION);
+        }
+    }
+
+    /////////////
+    // LOADING //
+    /////////////
+
+    @Override
+    public Optional<Metadata> loadMetadata(String id) {
+        var path = getPath(id);
+        if (!Files.isRegularFile(path)) return Optional.empty();
+        try {
+            var connection = getConnection(id);
+            synchronized (connection) {
+                return readMetadata(id, connection);
+            }
+        } catch (SQLException | JsonParseException ex) {
+            LOGGER.error("Error reading metadata from {}", path, ex);
+            return Optional.empty();
+        }
+    }
+
+    private Optional<Metadata> readMetadata(String id, Connection connection) throws SQLException {
+        try (var statement = connection.createStatement();
+             var results = statement.executeQuery("SELECT json FROM metadata WHERE id = 0")) {
+            if (!results.next()) return Optional.empty();
+            return decodeMetadata(id, JsonParser.parseString(results.getString(1)));
+        }
+    }
+
+    @Override
+    protected OptionalInt countMemories(String id) {
+        var path = getPath(id);
+        if (!Files.isRegularFile(path)) return OptionalInt.empty();
+        try {
+            var connection = getConnection(id);
+            synchronized (connection) {
+                try (var statement = connection.createStatement();
+                     var results = statement.executeQuery("SELECT COUNT(*) FROM memories")) {
+                    return results.next() ? OptionalInt.of(results.getInt(1)) : OptionalInt.empty();
+                }
+            }
+        } catch (SQLException ex) {
+            LOGGER.error("Error counting memories in {}", path, ex);
+            return OptionalInt.empty();
+        }
+    }
+
+    @Override
+    public @Nullable MemoryBank load(String id) {
+        var path = getPath(id);
+        if (!Files.isRegularFile(path)) return null;
+
+        var result = Timer.time(() -> read(id, path));
+        LOGGER.debug("Loaded {} in {}ns", path, result.getSecond());
+        return result.getFirst();
+    }
+
+    @Nullable
+    private MemoryBank read(String id, Path path) {
+        try {
+            Optional<Metadata> meta;
+            // read rows in one pass, then decode them in parallel
+            var rows = new ArrayList<Row>();
+            var connection = getConnection(id);
+            synchronized (connection) {
+                meta = readMetadata(id, connection);
+                if (meta.isEmpty()) return null;
+                try (var statement = connection.createStatement();
+                     var results = statement.executeQuery("SELECT key, pos, data FROM memories")) {
+                    while (results.next()) rows.add(new Row(results.getString(1), results.getLong(2), results.getBytes(3)));
+                }
+            }
+
+            var memories = new HashMap<ResourceLocation, Map<BlockPos, Memory>>();
+            rows.parallelStream()
+                .flatMap(row -> row.decode().stream())
+                .toList()
+                .forEach(decoded -> memories.computeIfAbsent(decoded.key(), k -> new HashMap<>()).put(decoded.pos(), decoded.memory()));
+
+            known.add(id);
+            return new MemoryBank(meta.get(), memories);
+        } catch (SQLException | JsonParseException ex) {
+            LOGGER.error("Error loading {}", path, ex);
+            return null;
+        }
+    }
+
+    ////////////
+    // SAVING //
+    ////////////
+
+    @Override
+    public BooleanSupplier prepareSave(MemoryBank memoryBank) {
+        var snapshot = memoryBank.takeSnapshot();
+        var path = getPath(snapshot.id());
+
+        List<MemoryChangeJournal.Change> changes = memoryBank.getSavedVersion() == -1 ? null
+                : memoryBank.getJournal().since(memoryBank.getSavedVersion());
+
+        // first save, or too many changes since the last save to know what's dirty
+        if (changes == null) return () -> write(snapshot, path, null);
+
+        var updates = collectUpdates(memoryBank, changes);
+        return () -> write(snapshot, path, known.contains(snapshot.id()) && Files.isRegularFile(path) ? updates : null);
+    }
+
+    /**
+     * Resolve a list of changes into the rows to write, keeping only the latest change for each position. Looks up the
+     * current memory for each, so needs to be called on the render thread.
+     */
+    private static List<Update> collectUpdates(MemoryBank bank, List<MemoryChangeJournal.Change> changes) {
+        // later changes to a position replace earlier ones, but still come after any key removal in between
+        var latest = new LinkedHashMap<Update.Target, Update>();
+        for (MemoryChangeJournal.Change change : changes) {
+            var target = new Update.Target(change.key(), change.pos());
+            Memory memory = null;
+            if (change.operation() != MemoryChangeJournal.Operation.KEY_REMOVED) {
+                var keyMemories = bank.getMemories(change.key());
+                memory = keyMemories == null ? null : keyMemories.get(change.pos());
+            }
+            latest.remove(target);
+            latest.put(target, new Update(target, memory));
+        }
+        return List.copyOf(latest.values());
+    }
+
+    /**
+     * Write a memory bank in one transaction.
+     *
+     * @param updates Changes since the last save to apply, or null to replace every memory.
+     */
+    private boolean write(MemoryBankSnapshot snapshot, Path path, @Nullable List<Update> updates) {
+        var metaJson = encodeMetadata(snapshot.metadata());
+        if (metaJson.isEmpty()) return false;
+        if (updates != null && updates.isEmpty() && metaJson.get().equals(lastMetadata.get(snapshot.id()))) {
+            LOGGER.debug("Skipping unchanged memory bank {}", snapshot.id());
+            return true;
+        }
+
+        LOGGER.debug("Saving {}: {}", snapshot.id(), updates == null ? "all memories" : updates.size() + " changes");
+        try {
+            Files.createDirectories(path.getParent());
+            var connection = getConnection(snapshot.id());
+            synchronized (connection) {
+                connection.setAutoCommit(false);
+                try (var statements = new Statements(connection)) {
+                    writeMetadata(connection, metaJson.get());
+                    if (updates == null) {
+                        try (var statement = connection.createStatement()) {
+                            statement.executeUpdate("DELETE FROM memories");
+                            statement.executeUpdate("DELETE FROM items");
+                        }
+                        for (var key : snapshot.getAllMemories().entrySet()) {
+                            for (var entry : key.getValue().entrySet())
+                                statements.upsert(key.getKey(), entry.getKey(), entry.getValue(), false);
+                            statements.execute();
+                        }
+                    } else {
+                        for (Update update : updates) statements.apply(update);
+                        statements.execute();
+                    }
+                    connection.commit();
+                } catch (SQLException ex) {
+                    connection.rollback();
+                    throw ex;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+        } catch (IOException | SQLException ex) {
+            LOGGER.error("Error saving {}", path, ex);
+            // the next save rewrites everything, and queries don't trust it until then
+            known.remove(snapshot.id());
+            return false;
+        }
+
+        lastMetadata.put(snapshot.id(), metaJson.get());
+        known.add(snapshot.id());
+        return true;
+    }
+
+    /**
+     * Replace the metadata of a memory bank, creating its database if needed.
+     */
+    @Override
+    public boolean saveMetadata(String id, Metadata metadata) {
+        var path = getPath(id);
+        var metaJson = encodeMetadata(metadata);
+        if (metaJson.isEmpty()) return false;
+        if (metaJson.get().equals(lastMetadata.get(id)) && Files.isRegularFile(path)) return true;
+        try {
+            Files.createDirectories(path.getParent());
+            var connection = getConnection(id);
+            synchronized (connection) {
+                writeMetadata(connection, metaJson.get());
+            }
+        } catch (IOException | SQLException ex) {
+            LOGGER.error("Error saving metadata to {}", path, ex);
+            return false;
+        }
+        lastMetadata.put(id, metaJson.get());
+        return true;
+    }
+
+    private static void writeMetadata(Connection connection, JsonElement json) throws SQLException {
+        try (var statement = connection.prepareStatement(
+                "INSERT INTO metadata (id, json) VALUES (0, ?) ON CONFLICT (id) DO UPDATE SET json = excluded.json")) {
+            statement.setString(1, json.toString());
+            statement.executeUpdate();
+        }
+    }
+
+    ///////////
+    // QUERY //
+    ///////////
+
+    /**
+     * Returns the positions in a key that held any of the given items within a box around a point as of the last
+     * committed save, using the item table's index. Waits for any save in progress, so shouldn't be called on the
+     * render thread. Callers should check the exact range and current contents themselves.
+     */
+    @Override
+    public Optional<LongSet> findItemPositions(String id, ResourceLocation key, Set<Item> items, Vec3 origin, int range) {
+        var path = getPath(id);
+        if (!known.contains(id) || items.isEmpty() || items.size() > MAX_QUERY_ITEMS || !Files.isRegularFile(path))
+            return Optional.empty();
+
+        var sql = "SELECT DISTINCT pos FROM items WHERE key = ? AND item IN (%s) AND x BETWEEN ? AND ? AND z BETWEEN ? AND ? AND y BETWEEN ? AND ?"
+                .formatted(String.join(", ", Collections.nCopies(items.size(), "?")));
+        var result = Timer.time(() -> {
+            try {
+                var connection = getConnection(id);
+                synchronized (connection) {
+                    return Optional.of(query(connection, sql, key, items, origin, range));
+                }
+            } catch (SQLException ex) {
+                LOGGER.error("Error querying items in {}", path, ex);
+                return Optional.<LongSet>empty();
+            }
+        });
+        LOGGER.debug("Queried {} items in {} in {}ns", items.size(), key, result.getSecond());
+        return result.getFirst();
+    }
+
+    private static LongSet query(Connection connection, String sql, ResourceLocation key, Set<Item> items, Vec3 origin, int range) throws SQLException {
+        try (var statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            statement.setString(index++, key.toString());
+            for (Item item : items) statement.setString(index++, BuiltInRegistries.ITEM.getKey(item).toString());
+            statement.setInt(index++, Mth.floor(origin.x - range));
+            statement.setInt(index++, Mth.ceil(origin.x + range));
+            statement.setInt(index++, Mth.floor(origin.z - range));
+            statement.setInt(index++, Mth.ceil(origin.z + range));
+            statement.setInt(index++, Mth.floor(origin.y - range));
+            statement.setInt(index, Mth.ceil(origin.y + range));
+
+            LongSet positions = new LongOpenHashSet();
+            try (var results = statement.executeQuery()) {
+                while (results.next()) positions.add(results.getLong(1));
+            }
+            return positions;
+        }
+    }
+
+    ///////////
+    // UTILS //
+    ///////////
+
+    @Nullable
+    private static byte[] encode(ResourceLocation key, BlockPos pos, Memory memory) {
+        var tag = Memory.CODEC.encodeStart(NbtOps.INSTANCE, memory)
+                .resultOrPartial(Util.prefix("Error encoding memory at " + pos + " in " + key + ": ", LOGGER::error));
+        if (tag.isEmpty() || !(tag.get() instanceof CompoundTag compound)) return null;
+        var bytes = new ByteArrayOutputStream();
+        try {
+            NbtIo.write(compound, new DataOutputStream(bytes));
+        } catch (IOException ex) {
+            LOGGER.error("Error encoding memory at {} in {}", pos, key, ex);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Total count of each item ID in a memory, for the item table.
+     */
+    private static Map<String, Integer> countItems(Memory memory) {
+        var counts = new HashMap<String, Integer>();
+        for (ItemStack stack : memory.items())
+            if (!stack.isEmpty())
+                counts.merge(BuiltInRegistries.ITEM.getKey(stack.getItem()).toString(), stack.getCount(), Integer::sum);
+        return counts;
+    }
+
+    /**
+     * Prepared statements for writing memories, batched until {@link #execute()}.
+     */
+    private static class Statements implements AutoCloseable {
+        private final PreparedStatement upsertMemory;
+        private final PreparedStatement deleteMemory;
+        private final PreparedStatement deleteKey;
+        private final PreparedStatement insertItem;
+        private final PreparedStatement deleteItems;
+        private final PreparedStatement deleteKeyItems;
+
+        private Statements(Connection connection) throws SQLException {
+            this.upsertMemory = connection.prepareStatement("""
+                    INSERT INTO memories (key, pos, container, loaded_timestamp, world_timestamp, real_timestamp, data)
+                    VALUES (?, ?, ?, ?, ?, ?, ?)
+                    ON CONFLICT (key, pos) DO UPDATE SET
+                        container = excluded.container,
+                        loaded_timestamp = excluded.loaded_timestamp,
+                        world_timestamp = excluded.world_timestamp,
+                        real_timestamp = excluded.real_timestamp,
+                        data = excluded.data""");
+            this.deleteMemory = connection.prepareStatement("DELETE FROM memories WHERE key = ? AND pos = ?");
+            this.deleteKey = connection.prepareStatement("DELETE FROM memories WHERE key = ?");
+            this.insertItem = connection.prepareStatement("INSERT INTO items (key, pos, item, count, x, y, z) VALUES (?, ?, ?, ?, ?, ?, ?)");
+            this.deleteItems = connection.prepareStatement("DELETE FROM items WHERE key = ? AND pos = ?");
+            this.deleteKeyItems = connection.prepareStatement("DELETE FROM items WHERE key = ?");
+        }
+
+        private void apply(Update update) throws SQLException {
+            var key = update.target().key();
+            var pos = update.target().pos();
+            if (pos == null) {
+                // key removals have to go in before any later changes to the same key
+                execute();
+                deleteKey.setString(1, key.toString());
+                deleteKey.executeUpdate();
+                deleteKeyItems.setString(1, key.toString());
+                deleteKeyItems.executeUpdate();
+            } else if (update.memory() == null) {
+                deleteMemory.setString(1, key.toString());
+                deleteMemory.setLong(2, pos.asLong());
+                deleteMemory.addBatch();
+                deleteItems.setString(1, key.toString());
+                deleteItems.setLong(2, pos.asLong());
+                deleteItems.addBatch();
+            } else {
+                upsert(key, pos, update.memory(), true);
+            }
+        }
+
+        /**
+         * @param replaceItems Whether there may already be items for this position that need removing first.
+         */
+        private void upsert(ResourceLocation key, BlockPos pos, Memory memory, boolean replaceItems) throws SQLException {
+            var data = encode(key, pos, memory);
+            if (data == null) return;
+
+            upsertMemory.setString(1, key.toString());
+            upsertMemory.setLong(2, pos.asLong());
+            upsertMemory.setString(3, memory.container().map(block -> BuiltInRegistries.BLOCK.getKey(block).toString()).orElse(null));
+            upsertMemory.setLong(4, memory.loadedTimestamp());
+            upsertMemory.setLong(5, memory.inGameTimestamp());
+            upsertMemory.setLong(6, memory.realTimestamp().toEpochMilli());
+            upsertMemory.setBytes(7, data);
+            upsertMemory.addBatch();
+
+            if (replaceItems) {
+                deleteItems.setString(1, key.toString());
+                deleteItems.setLong(2, pos.asLong());
+                deleteItems.addBatch();
+            }
+            for (var item : countItems(memory).entrySet()) {
+                insertItem.setString(1, key.toString());
+                insertItem.setLong(2, pos.asLong());
+                insertItem.setString(3, item.getKey());
+                insertItem.setInt(4, item.getValue());
+                insertItem.setInt(5, pos.getX());
+                insertItem.setInt(6, pos.getY());
+                insertItem.setInt(7, pos.getZ());
+                insertItem.addBatch();
+            }
+        }
+
+        /**
+         * Run every batched statement. Deletes go first so re-inserted items don't collide with the ones they replace.
+         */
+        private void execute() throws SQLException {
+            deleteMemory.executeBatch();
+            deleteItems.executeBatch();
+            upsertMemory.executeBatch();
+            insertItem.executeBatch();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            for (Statement statement : List.of(upsertMemory, deleteMemory, deleteKey, insertItem, deleteItems, deleteKeyItems))
+                statement.close();
+        }
+    }
+
+    /**
+     * @param memory New memory at the target position, or null if removed.
+     */
+    private record Update(Target target, @Nullable Memory memory) {
+        /**
+         * @param pos Position of the change, or null for a whole key being removed.
+         */
+        private record Target(ResourceLocation key, @Nullable BlockPos pos) {}
+    }
+
+    private record Row(String key, long pos, byte[] data) {
+        private Optional<Decoded> decode() {
+            ResourceLocation location;
+            try {
+                location = new ResourceLocation(key);
+            } catch (ResourceLocationException ex) {
+                LOGGER.error("Invalid memory key {}", key);
+                return Optional.empty();
+            }
+            var blockPos = BlockPos.of(pos);
+            try {
+                var tag = NbtIo.read(new DataInputStream(new ByteArrayInputStream(data)), NbtAccounter.unlimitedHeap());
+                return Memory.CODEC.parse(NbtOps.INSTANCE, tag)
+                        .resultOrPartial(Util.prefix("Error decoding memory at " + blockPos + " in " + key + ": ", LOGGER::error))
+                        .map(memory -> new Decoded(location, blockPos, memory));
+            } catch (IOException ex) {
+                LOGGER.error("Error reading memory at {} in {}", blockPos, key, ex);
+                return Optional.empty();
+            }
+        }
+    }
+
+    private record Decoded(ResourceLocation key, BlockPos pos, Memory memory) {}
+}
@@ -0,0 +1,80 @@
+package red.jackf.chesttracker.util;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import net.minecraft.core.BlockPos;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Read-only {@link Map} view of a map keyed by packed positions from {@link BlockPos#asLong()}, for callers that work
+ * with block positions.
+ *
+ * @param <V> Type of value in the map
+ */
+public class BlockPosMapView<V> extends AbstractMap<BlockPos, V> {
+    private final Long2ObjectMap<V> map;
+
+    public BlockPosMapView(Long2ObjectMap<V> map) {
+        this.map = map;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof BlockPos pos && map.containsKey(pos.asLong());
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof BlockPos pos ? map.get(pos.asLong()) : null;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super BlockPos, ? super V> action) {
+        for (Long2ObjectMap.Entry<V> entry : map.long2ObjectEntrySet())
+            action.accept(BlockPos.of(entry.getLongKey()), entry.getValue());
+    }
+
+    @Override
+    public @NotNull Collection<V> values() {
+        return Collections.unmodifiableCollection(map.values());
+    }
+
+    @Override
+    public @NotNull Set<Entry<BlockPos, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return map.size();
+            }
+
+            @Override
+            public @NotNull Iterator<Entry<BlockPos, V>> iterator() {
+                var iter = map.long2ObjectEntrySet().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iter.hasNext();
+                    }
+
+                    @Override
+                    public Entry<BlockPos, V> next() {
+                        var entry = iter.next();
+                        return new SimpleImmutableEntry<>(BlockPos.of(entry.getLongKey()), entry.getValue());
+                    }
+                };
+            }
+        };
+    }
+}
@@ -8,4 +8,7 @@ public class Constants {
 
     // TODO: Make user configurable
     public static final Path STORAGE_DIR = FabricLoader.getInstance().getGameDir().resolve("chesttracker");
+
+    // temporary files, cleared on startup
+    public static final Path CACHE_DIR = FabricLoader.getInstance().getGameDir().resolve(".chesttracker-cache");
 }
@@ -10,13 +10,16 @@ import net.minecraft.nbt.NbtOps;
 import org.apache.logging.log4j.Logger;
 import red.jackf.chesttracker.ChestTracker;
 import red.jackf.chesttracker.config.ChestTrackerConfig;
+import red.jackf.chesttracker.storage.NbtCompression;
 
-import java.io.IOException;
+import java.io.*;
 import java.nio.file.CopyOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Utilities for working with files.
@@ -44,7 +47,9 @@ public class FileUtil {
             if (err.isPresent()) {
                 throw new IOException("Error encoding to NBT %s".formatted(err.get()));
             } else if (result.isPresent() && result.get() instanceof CompoundTag compound) {
-                NbtIo.writeCompressed(compound, path);
+                try (var output = new BufferedOutputStream(Files.newOutputStream(path))) {
+                    writeNbt(compound, output, ChestTrackerConfig.INSTANCE.instance().storage.nbtCompression);
+                }
                 return true;
             } else { //noinspection OptionalGetWithoutIsPresent
                 throw new IOException("Error encoding to NBT: not a compound tag: %s".formatted(result.get()));
@@ -66,7 +71,10 @@ public class FileUtil {
     public static <T> Optional<T> loadFromNbt(Codec<T> codec, Path path) {
         if (Files.isRegularFile(path)) {
             try {
-                var tag = NbtIo.readCompressed(path, NbtAccounter.unlimitedHeap());
+                CompoundTag tag;
+                try (var input = new BufferedInputStream(Files.newInputStream(path))) {
+                    tag = readNbt(input);
+                }
                 var loaded = codec.decode(NbtOps.INSTANCE, tag).get();
                 if (loaded.right().isPresent()) {
                     throw new IOException("Invalid NBT: %s".formatted(loaded.right().get()));
@@ -82,6 +90,41 @@ public class FileUtil {
         return Optional.empty();
     }
 
+    /**
+     * Write an NBT compound to a stream, gzipped unless the compression is {@link NbtCompression#NONE}.
+     *
+     * @param tag         Compound to write
+     * @param output      Stream to write to. Not closed.
+     * @param compression How to compress the written compound.
+     */
+    public static void writeNbt(CompoundTag tag, OutputStream output, NbtCompression compression) throws IOException {
+        if (compression == NbtCompression.NONE) {
+            NbtIo.write(tag, new DataOutputStream(output));
+        } else {
+            var gzip = new GZIPOutputStream(output) {{
+                def.setLevel(compression.level);
+            }};
+            NbtIo.write(tag, new DataOutputStream(gzip));
+            gzip.finish();
+        }
+    }
+
+    /**
+     * Read an NBT compound from a stream, detecting whether it's gzipped from the header.
+     *
+     * @param input Stream to read from. Must support marking. Not closed.
+     * @return Compound read from the stream
+     */
+    public static CompoundTag readNbt(InputStream input) throws IOException {
+        input.mark(2);
+        int first = input.read();
+        int second = input.read();
+        input.reset();
+        boolean gzipped = first == (GZIPInputStream.GZIP_MAGIC & 0xFF) && second == (GZIPInputStream.GZIP_MAGIC >> 8);
+        if (gzipped) input = new BufferedInputStream(new GZIPInputStream(input));
+        return NbtIo.read(new DataInputStream(input), NbtAccounter.unlimitedHeap());
+    }
+
     public static void tryMove(Path from, Path to, CopyOption... options) {
         try {
             Files.move(from, to, options);
@@ -0,0 +1,97 @@
+package red.jackf.chesttracker.util;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Read-only {@link Map} over separate maps for each chunk section, each keyed by packed positions from
+ * {@link BlockPos#asLong()}. Section maps can be shared between instances, so a copy with one section changed only
+ * needs that section copying.
+ *
+ * @param <V> Type of value in the map
+ */
+public class SectionedBlockPosMap<V> extends AbstractMap<BlockPos, V> {
+    // section -> positions in that section; neither should be modified after construction
+    private final Long2ObjectMap<Long2ObjectMap<V>> sections;
+    private final int size;
+
+    /**
+     * @param sections Map of packed section positions from {@link SectionPos#blockToSection(long)} to the values in
+     *                 that section. Neither this nor any section map should be modified afterwards.
+     */
+    public SectionedBlockPosMap(Long2ObjectMap<Long2ObjectMap<V>> sections) {
+        this.sections = sections;
+        int size = 0;
+        for (var section : sections.values()) size += section.size();
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof BlockPos pos)) return false;
+        var section = sections.get(SectionPos.blockToSection(pos.asLong()));
+        return section != null && section.containsKey(pos.asLong());
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof BlockPos pos)) return null;
+        var section = sections.get(SectionPos.blockToSection(pos.asLong()));
+        return section == null ? null : section.get(pos.asLong());
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super BlockPos, ? super V> action) {
+        for (var section : sections.values())
+            for (Long2ObjectMap.Entry<V> entry : Long2ObjectMaps.fastIterable(section))
+                action.accept(BlockPos.of(entry.getLongKey()), entry.getValue());
+    }
+
+    @Override
+    public @NotNull Set<Entry<BlockPos, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public @NotNull Iterator<Entry<BlockPos, V>> iterator() {
+                var sectionIter = sections.values().iterator();
+                return new Iterator<>() {
+                    private Iterator<Long2ObjectMap.Entry<V>> iter = Collections.emptyIterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!iter.hasNext() && sectionIter.hasNext())
+                            iter = Long2ObjectMaps.fastIterator(sectionIter.next());
+                        return iter.hasNext();
+                    }
+
+                    @Override
+                    public Entry<BlockPos, V> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        var entry = iter.next();
+                        return new SimpleImmutableEntry<>(BlockPos.of(entry.getLongKey()), entry.getValue());
+                    }
+                };
+            }
+        };
+    }
+}